@@ -13,6 +13,22 @@ repositories {
     jcenter()
 }
 
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets["main"].output
+        runtimeClasspath += sourceSets["main"].output
+    }
+    create("load") {
+        compileClasspath += sourceSets["main"].output
+        runtimeClasspath += sourceSets["main"].output
+    }
+}
+
+configurations["jmhCompile"].extendsFrom(configurations["compile"])
+configurations["jmhRuntime"].extendsFrom(configurations["runtime"])
+configurations["loadCompile"].extendsFrom(configurations["compile"])
+configurations["loadRuntime"].extendsFrom(configurations["runtime"])
+
 dependencies {
     // Our beloved one-nio
     compile("ru.odnoklassniki:one-nio:1.2.0")
@@ -30,12 +46,50 @@ dependencies {
     // JUnit Jupiter test framework
     testCompile("org.junit.jupiter:junit-jupiter-api:5.4.0")
     testRuntime("org.junit.jupiter:junit-jupiter-engine:5.4.0")
+
+    // JMH benchmarks
+    "jmhCompile"("org.openjdk.jmh:jmh-core:1.21")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.21")
+
+    // Latency histograms for the load generator
+    "loadCompile"("org.hdrhistogram:HdrHistogram:2.1.11")
 }
 
 val run by tasks.getting(JavaExec::class) {
     standardInput = System.`in`
 }
 
+// gradle jmh [-Pjmh=<JMH options and benchmark regexp>] [-Pthreads=1,2,4]
+val jmh by tasks.registering(JavaExec::class) {
+    group = "benchmark"
+    description = "Runs JMH benchmarks for each of the thread counts"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    main = "ru.mail.polis.BenchmarkRunner"
+    jvmArgs = listOf("-Xmx128m")
+    args = (project.findProperty("jmh") as String?)?.split(" ") ?: emptyList()
+    systemProperty("jmh.threads", project.findProperty("threads") ?: "1,2,4")
+}
+
+// gradle load [-Pload="--rate=10000 --duration=60 --connections=1 --mix=50:45:5 --distribution=zipfian"]
+val load by tasks.registering(JavaExec::class) {
+    group = "load"
+    description = "Drives /v0/entity at a fixed rate against an in-process or a remote service"
+    classpath = sourceSets["load"].runtimeClasspath
+    main = "ru.mail.polis.load.LoadGenerator"
+    jvmArgs = listOf("-Xmx128m")
+    args = (project.findProperty("load") as String?)?.split(" ") ?: emptyList()
+}
+
+// gradle bulkLoad -PbulkLoad="<data directory> <sorted dump>"
+val bulkLoad by tasks.registering(JavaExec::class) {
+    group = "application"
+    description = "Loads a sorted dump into the storage bypassing the write path"
+    classpath = sourceSets["main"].runtimeClasspath
+    main = "ru.mail.polis.BulkLoad"
+    jvmArgs = listOf("-Xmx128m")
+    args = (project.findProperty("bulkLoad") as String?)?.split(" ") ?: emptyList()
+}
+
 tasks {
     test {
         maxHeapSize = "128m"
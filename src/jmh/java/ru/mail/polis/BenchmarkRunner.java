@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs JMH benchmarks once per thread count from {@code jmh.threads} system property.
+ * <p>
+ * The arguments are the usual JMH command line options.
+ *
+ * @author IgorLo
+ */
+public final class BenchmarkRunner {
+    private BenchmarkRunner() {
+        // Not instantiable
+    }
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        final CommandLineOptions options = new CommandLineOptions(args);
+        for (final String threads : System.getProperty("jmh.threads", "1").split(",")) {
+            new Runner(
+                    new OptionsBuilder()
+                            .parent(options)
+                            .threads(Integer.parseInt(threads.trim()))
+                            .build())
+                    .run();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link DAO#compact()} of a store where every key is overwritten several times.
+ *
+ * @author IgorLo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompactionBenchmark {
+    @Param({"16", "64"})
+    private int keySize;
+
+    @Param({"100", "1024"})
+    private int valueSize;
+
+    @Param("20000")
+    private int keys;
+
+    @Param("4")
+    private int overwrites;
+
+    private File data;
+    private DAO dao;
+
+    @Setup(Level.Invocation)
+    public void setUp() throws IOException {
+        data = Files.createTempDirectory();
+        dao = DAOFactory.create(data);
+        final ByteBuffer value = ByteBuffer.allocate(valueSize);
+        for (int round = 0; round < overwrites; round++) {
+            ThreadLocalRandom.current().nextBytes(value.array());
+            for (int i = 0; i < keys; i++) {
+                dao.upsert(DAOBenchmark.key(i, keySize), value.duplicate());
+            }
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws IOException {
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @Benchmark
+    public void compact() throws IOException {
+        dao.compact();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.mail.polis.Files;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage engine benchmarks of the {@link DAO} operations.
+ * <p>
+ * The store is prefilled with the even keys, so the odd ones are misses.
+ *
+ * @author IgorLo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DAOBenchmark {
+    private static final int RANGE = 100;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    @Param({"16", "64"})
+    private int keySize;
+
+    @Param({"100", "1024"})
+    private int valueSize;
+
+    @Param("100000")
+    private int keys;
+
+    private File data;
+    private DAO dao;
+    private ByteBuffer value;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = Files.createTempDirectory();
+        dao = DAOFactory.create(data);
+        value = ByteBuffer.allocate(valueSize);
+        ThreadLocalRandom.current().nextBytes(value.array());
+        for (int i = 0; i < keys; i++) {
+            dao.upsert(key(2L * i, keySize), value.duplicate());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    /**
+     * Builds a key spreading the sequential indices over the key space.
+     */
+    @NotNull
+    static ByteBuffer key(
+            final long index,
+            final int size) {
+        final ByteBuffer result = ByteBuffer.allocate(Math.max(size, Long.BYTES));
+        result.putLong(index * 0x9E3779B97F4A7C15L);
+        result.rewind();
+        return result;
+    }
+
+    private ByteBuffer randomKey(final boolean hit) {
+        final long index = 2L * ThreadLocalRandom.current().nextInt(keys);
+        return key(hit ? index : index + 1, keySize);
+    }
+
+    @Benchmark
+    public void upsert() throws IOException {
+        dao.upsert(randomKey(true), value.duplicate());
+    }
+
+    @Benchmark
+    public ByteBuffer getHit() throws IOException {
+        return dao.get(randomKey(true));
+    }
+
+    @Benchmark
+    public boolean getMiss() throws IOException {
+        try {
+            dao.get(randomKey(false));
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public void range(final Blackhole blackhole) throws IOException {
+        final Iterator<Record> records = dao.iterator(randomKey(true));
+        for (int i = 0; i < RANGE && records.hasNext(); i++) {
+            blackhole.consume(records.next());
+        }
+    }
+
+    @Benchmark
+    public void descendingRange(final Blackhole blackhole) throws IOException {
+        final Iterator<Record> records = dao.descendingRange(EMPTY, randomKey(true));
+        for (int i = 0; i < RANGE && records.hasNext(); i++) {
+            blackhole.consume(records.next());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.mail.polis.Record;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the {@link Iters} facilities over sorted {@link Record}s.
+ *
+ * @author IgorLo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ItersBenchmark {
+    @Param({"16", "64"})
+    private int keySize;
+
+    @Param("10000")
+    private int records;
+
+    /**
+     * Every key is repeated this many times as if merged from several tables.
+     */
+    @Param({"1", "4"})
+    private int duplicates;
+
+    private List<Record> sorted;
+    private Record middle;
+
+    @Setup
+    public void setUp() {
+        sorted = new ArrayList<>(records * duplicates);
+        final ByteBuffer value = ByteBuffer.allocate(0);
+        for (int i = 0; i < records; i++) {
+            final ByteBuffer key = ByteBuffer.allocate(keySize);
+            key.putInt(i);
+            key.rewind();
+            for (int d = 0; d < duplicates; d++) {
+                sorted.add(Record.of(key, value));
+            }
+        }
+        middle = sorted.get(sorted.size() / 2);
+    }
+
+    @Benchmark
+    public void until(final Blackhole blackhole) {
+        final Iterator<Record> iter = Iters.until(sorted.iterator(), middle);
+        while (iter.hasNext()) {
+            blackhole.consume(iter.next());
+        }
+    }
+
+    @Benchmark
+    public void untilCursor(final Blackhole blackhole) {
+        final Cursor cursor = Iters.until(Iters.cursor(sorted.iterator()), middle.getKey());
+        while (cursor.next()) {
+            blackhole.consume(cursor.key());
+        }
+    }
+
+    @Benchmark
+    public void collapseEquals(final Blackhole blackhole) {
+        final Iterator<Record> iter = Iters.collapseEquals(sorted.iterator(), Record::getKey);
+        while (iter.hasNext()) {
+            blackhole.consume(iter.next());
+        }
+    }
+}
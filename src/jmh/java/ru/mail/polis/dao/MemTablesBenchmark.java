@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Upsert latency distribution of {@link MemTables} while the frozen memtables
+ * are flushed by a simulated disk, compare the tail with {@code flushMicrosPerMb} of zero.
+ *
+ * @author IgorLo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-XX:MaxDirectMemorySize=512m")
+public class MemTablesBenchmark {
+    private static final int KEY_SIZE = 16;
+
+    @Param({"4194304"})
+    private int capacity;
+
+    @Param({"0", "10000"})
+    private long flushMicrosPerMb;
+
+    @Param("1024")
+    private int valueSize;
+
+    private MemTables memTables;
+    private ByteBuffer value;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        value = ByteBuffer.allocate(valueSize);
+        ThreadLocalRandom.current().nextBytes(value.array());
+        memTables = new MemTables(
+                capacity,
+                2,
+                table -> {
+                    // Pretend to write the table at the given speed
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(flushMicrosPerMb * table.bytes() >> 20));
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException();
+                    }
+                    return "table";
+                });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        memTables.close();
+    }
+
+    @Benchmark
+    public void upsert() throws IOException {
+        final long index = ThreadLocalRandom.current().nextLong();
+        memTables.upsert(DAOBenchmark.key(index, KEY_SIZE), value.duplicate());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.Files;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares per-request forwarding ({@code maxBytes = 1}) with batched replica writes.
+ * <p>
+ * The peer is simulated in-process by a single handler thread applying
+ * the batches to its own {@link DAO}, so the numbers reflect the per-request
+ * overhead on the peer side, not the network. Batching pays off only with
+ * concurrent writers, so run it with several threads, e.g. {@code -Pthreads=1,16,64}.
+ *
+ * @author IgorLo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ReplicationBatcherBenchmark {
+    private static final String PEER = "peer";
+
+    /**
+     * Batch size cap, {@code 1} means a request per operation.
+     */
+    @Param({"1", "65536"})
+    private int maxBytes;
+
+    @Param("1000")
+    private long windowMicros;
+
+    private File data;
+    private DAO dao;
+    private ExecutorService handler;
+    private ScheduledExecutorService scheduler;
+    private ReplicationBatcher batcher;
+    private ByteBuffer value;
+
+    @Setup
+    public void setUp() throws IOException {
+        data = Files.createTempDirectory();
+        dao = DAOFactory.create(data);
+        handler = Executors.newSingleThreadExecutor();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        batcher = new ReplicationBatcher(
+                (peer, batch) -> CompletableFuture.runAsync(() -> {
+                    try {
+                        ReplicationBatcher.apply(batch, dao);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, handler),
+                scheduler,
+                windowMicros,
+                maxBytes);
+        value = ByteBuffer.allocate(256);
+        ThreadLocalRandom.current().nextBytes(value.array());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        scheduler.shutdownNow();
+        handler.shutdownNow();
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @Benchmark
+    public void upsert() throws ExecutionException, InterruptedException {
+        final ByteBuffer key = ByteBuffer.allocate(Long.BYTES);
+        key.putLong(ThreadLocalRandom.current().nextLong());
+        key.rewind();
+        batcher.upsert(PEER, key, value.duplicate()).get();
+    }
+}
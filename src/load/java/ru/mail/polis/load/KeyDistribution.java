@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.load;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Key index distributions used by YCSB.
+ *
+ * @author IgorLo
+ */
+abstract class KeyDistribution {
+    /**
+     * The number of keys loaded before the run, the next key to insert is {@code inserted}.
+     */
+    final AtomicLong inserted;
+
+    KeyDistribution(final long keys) {
+        this.inserted = new AtomicLong(keys);
+    }
+
+    /**
+     * Picks an index of an existing key.
+     */
+    abstract long next();
+
+    /**
+     * Picks an index of a key to write.
+     */
+    long nextWrite() {
+        return next();
+    }
+
+    @NotNull
+    static KeyDistribution of(
+            @NotNull final String name,
+            final long keys) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "uniform":
+                return new Uniform(keys);
+            case "zipfian":
+                return new Zipfian(keys);
+            case "latest":
+                return new Latest(keys);
+            default:
+                throw new IllegalArgumentException("Unknown key distribution: " + name);
+        }
+    }
+
+    static final class Uniform extends KeyDistribution {
+        Uniform(final long keys) {
+            super(keys);
+        }
+
+        @Override
+        long next() {
+            return ThreadLocalRandom.current().nextLong(inserted.get());
+        }
+    }
+
+    /**
+     * Scrambled Zipfian: popular keys are spread over the key space instead of clustering at the start.
+     */
+    static final class Zipfian extends KeyDistribution {
+        private final ZipfianGenerator zipf;
+
+        Zipfian(final long keys) {
+            super(keys);
+            this.zipf = new ZipfianGenerator(keys);
+        }
+
+        @Override
+        long next() {
+            return Long.remainderUnsigned(fnv(zipf.next()), inserted.get());
+        }
+
+        private static long fnv(final long value) {
+            long hash = 0xCBF29CE484222325L;
+            for (int i = 0; i < Long.BYTES; i++) {
+                hash ^= (value >>> (i * Byte.SIZE)) & 0xFF;
+                hash *= 0x100000001B3L;
+            }
+            return hash;
+        }
+    }
+
+    /**
+     * Recently inserted keys are the most popular, every write inserts a new key.
+     */
+    static final class Latest extends KeyDistribution {
+        private final ZipfianGenerator zipf;
+
+        Latest(final long keys) {
+            super(keys);
+            this.zipf = new ZipfianGenerator(keys);
+        }
+
+        @Override
+        long next() {
+            final long latest = inserted.get() - 1;
+            return Math.max(0L, latest - zipf.next());
+        }
+
+        @Override
+        long nextWrite() {
+            return inserted.getAndIncrement();
+        }
+    }
+
+    /**
+     * Zipfian generator from "Quickly Generating Billion-Record Synthetic Databases" by Gray et al.
+     */
+    static final class ZipfianGenerator {
+        private static final double THETA = 0.99;
+
+        private final long items;
+        private final double zetan;
+        private final double alpha;
+        private final double eta;
+
+        ZipfianGenerator(final long items) {
+            if (items <= 0) {
+                throw new IllegalArgumentException("Non-positive key count");
+            }
+            this.items = items;
+            this.zetan = zeta(items);
+            this.alpha = 1.0 / (1.0 - THETA);
+            this.eta = (1.0 - Math.pow(2.0 / items, 1.0 - THETA)) / (1.0 - zeta(2) / zetan);
+        }
+
+        private static double zeta(final long n) {
+            double sum = 0.0;
+            for (long i = 1; i <= n; i++) {
+                sum += 1.0 / Math.pow(i, THETA);
+            }
+            return sum;
+        }
+
+        /**
+         * @return rank in [0; items), {@code 0} is the most popular
+         */
+        long next() {
+            final double u = ThreadLocalRandom.current().nextDouble();
+            final double uz = u * zetan;
+            if (uz < 1.0) {
+                return 0L;
+            }
+            if (uz < 1.0 + Math.pow(0.5, THETA)) {
+                return Math.min(1L, items - 1);
+            }
+            return Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1.0, alpha)));
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.load;
+
+import one.nio.http.HttpClient;
+import one.nio.http.HttpException;
+import one.nio.http.Response;
+import one.nio.net.ConnectionString;
+import one.nio.pool.PoolException;
+import org.HdrHistogram.Histogram;
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.Files;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+import ru.mail.polis.service.Service;
+import ru.mail.polis.service.ServiceFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-model load generator for {@code /v0/entity} in the spirit of wrk2.
+ * <p>
+ * Every connection sends requests on a fixed schedule, and the latency is
+ * measured from the <b>intended</b> send time, so a stalled server is not
+ * hidden by the generator waiting for it (coordinated omission).
+ * Without {@code --url} the storage and the service are started in-process.
+ * <p>
+ * Options (with defaults): {@code --rate=10000 --duration=60 --connections=1
+ * --mix=50:45:5 (GET:PUT:DELETE) --distribution=uniform|zipfian|latest
+ * --keys=100000 --value=256 --preload=<true if in-process> --url=<none>}
+ *
+ * @author IgorLo
+ */
+public final class LoadGenerator {
+    private static final String ENTITY = "/v0/entity?id=";
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9, 99.99, 100.0};
+
+    private LoadGenerator() {
+        // Not instantiable
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = parse(args);
+        final int rate = Integer.parseInt(options.getOrDefault("rate", "10000"));
+        final int duration = Integer.parseInt(options.getOrDefault("duration", "60"));
+        final int connections = Integer.parseInt(options.getOrDefault("connections", "1"));
+        final int[] mix = mix(options.getOrDefault("mix", "50:45:5"));
+        final long keys = Long.parseLong(options.getOrDefault("keys", "100000"));
+        final int valueSize = Integer.parseInt(options.getOrDefault("value", "256"));
+        final KeyDistribution distribution =
+                KeyDistribution.of(options.getOrDefault("distribution", "uniform"), keys);
+
+        String url = options.get("url");
+        final boolean inProcess = url == null;
+        File data = null;
+        DAO dao = null;
+        Service service = null;
+        if (inProcess) {
+            final int port = freePort();
+            data = Files.createTempDirectory();
+            dao = DAOFactory.create(data);
+            service = ServiceFactory.create(port, dao);
+            service.start();
+            url = "http://localhost:" + port;
+        }
+
+        try {
+            if (Boolean.parseBoolean(options.getOrDefault("preload", Boolean.toString(inProcess)))) {
+                preload(url, keys, valueSize);
+            }
+
+            final Worker[] workers = new Worker[connections];
+            final long intervalNanos = TimeUnit.SECONDS.toNanos(1) * connections / rate;
+            final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+            final long end = start + TimeUnit.SECONDS.toNanos(duration);
+            for (int i = 0; i < connections; i++) {
+                workers[i] = new Worker(
+                        i,
+                        url,
+                        distribution,
+                        mix,
+                        valueSize,
+                        start + intervalNanos * i / connections,
+                        end,
+                        intervalNanos);
+                workers[i].start();
+            }
+
+            final Histogram latency = new Histogram(3);
+            final Histogram serviceTime = new Histogram(3);
+            long requests = 0;
+            long errors = 0;
+            for (final Worker worker : workers) {
+                worker.join();
+                latency.add(worker.latency);
+                serviceTime.add(worker.serviceTime);
+                requests += worker.requests;
+                errors += worker.errors;
+            }
+
+            System.out.printf("%d requests in %ds (%.1f req/s, target %d req/s), %d errors%n",
+                    requests, duration, (double) requests / duration, rate, errors);
+            report("Latency (corrected for coordinated omission), ms", latency);
+            report("Service time (uncorrected), ms", serviceTime);
+            System.out.println("Detailed corrected latency distribution:");
+            latency.outputPercentileDistribution(System.out, 1000.0);
+        } finally {
+            if (inProcess) {
+                service.stop();
+                dao.close();
+                Files.recursiveDelete(data);
+            }
+        }
+    }
+
+    private static void report(
+            @NotNull final String title,
+            @NotNull final Histogram histogram) {
+        System.out.println(title);
+        for (final double percentile : PERCENTILES) {
+            System.out.printf("  %7.3f%% %10.3f%n", percentile, histogram.getValueAtPercentile(percentile) / 1000.0);
+        }
+    }
+
+    private static void preload(
+            @NotNull final String url,
+            final long keys,
+            final int valueSize) throws InterruptedException, IOException, HttpException, PoolException {
+        final HttpClient client = client(url);
+        try {
+            for (long key = 0; key < keys; key++) {
+                client.put(ENTITY + id(key), value(valueSize));
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    @NotNull
+    private static HttpClient client(@NotNull final String url) {
+        return new HttpClient(new ConnectionString(url + "?timeout=" + TimeUnit.MINUTES.toMillis(1)));
+    }
+
+    @NotNull
+    static String id(final long key) {
+        return "k" + Long.toHexString(key);
+    }
+
+    @NotNull
+    private static byte[] value(final int size) {
+        final byte[] result = new byte[size];
+        ThreadLocalRandom.current().nextBytes(result);
+        return result;
+    }
+
+    @NotNull
+    static int[] mix(@NotNull final String mix) {
+        final String[] parts = mix.split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Expected GET:PUT:DELETE mix but got " + mix);
+        }
+        final int[] result = new int[3];
+        for (int i = 0; i < 3; i++) {
+            result[i] = Integer.parseInt(parts[i]);
+            if (result[i] < 0) {
+                throw new IllegalArgumentException("Negative share in mix " + mix);
+            }
+        }
+        if (result[0] + result[1] + result[2] == 0) {
+            throw new IllegalArgumentException("Empty mix " + mix);
+        }
+        return result;
+    }
+
+    @NotNull
+    private static Map<String, String> parse(@NotNull final String[] args) {
+        final Map<String, String> result = new HashMap<>();
+        for (final String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --option=value but got " + arg);
+            }
+            final int eq = arg.indexOf('=');
+            result.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return result;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket()) {
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(InetAddress.getByName("0.0.0.0"), 0), 1);
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * A single connection sending requests on a fixed schedule.
+     */
+    private static final class Worker extends Thread {
+        private final HttpClient client;
+        private final KeyDistribution distribution;
+        private final int[] mix;
+        private final int valueSize;
+        private final long start;
+        private final long end;
+        private final long intervalNanos;
+
+        private final Histogram latency = new Histogram(3);
+        private final Histogram serviceTime = new Histogram(3);
+        private long requests;
+        private long errors;
+
+        Worker(
+                final int index,
+                @NotNull final String url,
+                @NotNull final KeyDistribution distribution,
+                @NotNull final int[] mix,
+                final int valueSize,
+                final long start,
+                final long end,
+                final long intervalNanos) {
+            super("load-" + index);
+            this.client = client(url);
+            this.distribution = distribution;
+            this.mix = mix.clone();
+            this.valueSize = valueSize;
+            this.start = start;
+            this.end = end;
+            this.intervalNanos = Math.max(1L, intervalNanos);
+        }
+
+        @Override
+        public void run() {
+            final byte[] value = value(valueSize);
+            final int total = mix[0] + mix[1] + mix[2];
+            try {
+                for (long intended = start; intended < end; intended += intervalNanos) {
+                    long now;
+                    while ((now = System.nanoTime()) < intended) {
+                        LockSupport.parkNanos(intended - now);
+                        if (isInterrupted()) {
+                            // parkNanos returns right away from now on
+                            return;
+                        }
+                    }
+
+                    final int op = ThreadLocalRandom.current().nextInt(total);
+                    final long sent = System.nanoTime();
+                    if (!send(op, value)) {
+                        errors++;
+                    }
+                    final long done = System.nanoTime();
+                    latency.recordValue(TimeUnit.NANOSECONDS.toMicros(done - intended));
+                    serviceTime.recordValue(TimeUnit.NANOSECONDS.toMicros(done - sent));
+                    requests++;
+                    if (isInterrupted()) {
+                        return;
+                    }
+                }
+            } finally {
+                client.close();
+            }
+        }
+
+        private boolean send(
+                final int op,
+                @NotNull final byte[] value) {
+            try {
+                final Response response;
+                if (op < mix[0]) {
+                    response = client.get(ENTITY + id(distribution.next()));
+                    return response.getStatus() == 200 || response.getStatus() == 404;
+                } else if (op < mix[0] + mix[1]) {
+                    response = client.put(ENTITY + id(distribution.nextWrite()), value);
+                    return response.getStatus() == 201;
+                } else {
+                    response = client.delete(ENTITY + id(distribution.next()));
+                    return response.getStatus() == 202;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (PoolException | IOException | HttpException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Loads a sorted dump into the storage with {@link DAO#bulkLoad(Iterator)}.
+ * <p>
+ * The dump is a sequence of {@code (keyLength:int, key, valueLength:int, value)}
+ * in strictly ascending key order, e.g. produced by {@link #write(DataOutputStream, Record)}
+ * and sorted externally. Usage: {@code BulkLoad <data directory> <dump>}.
+ * <p>
+ * The tool opens the storage itself, so the node must be stopped meanwhile, and the load
+ * is only as cheap and as atomic as the {@link DAO#bulkLoad(Iterator)} of the engine.
+ *
+ * @author IgorLo
+ */
+public final class BulkLoad {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private BulkLoad() {
+        // Not instantiable
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: BulkLoad <data directory> <dump>");
+            System.exit(1);
+        }
+
+        final long start = System.nanoTime();
+        long count = 0;
+        try (DAO dao = DAOFactory.create(new File(args[0]));
+             DataInputStream in = new DataInputStream(
+                     new BufferedInputStream(new FileInputStream(args[1]), BUFFER_SIZE))) {
+            final CountingIterator records = new CountingIterator(read(in));
+            dao.bulkLoad(records);
+            count = records.count;
+        }
+        final long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Loaded " + count + " records in " + elapsedMs + " ms");
+    }
+
+    /**
+     * Appends the record to the dump.
+     */
+    public static void write(
+            @NotNull final DataOutputStream out,
+            @NotNull final Record record) throws IOException {
+        write(out, record.getKey());
+        write(out, record.getValue());
+    }
+
+    /**
+     * Lazily reads the dump.
+     *
+     * @return the records throwing {@link UncheckedIOException} on I/O errors
+     * and {@link IllegalArgumentException} if the dump is truncated
+     */
+    @NotNull
+    public static Iterator<Record> read(@NotNull final DataInputStream in) {
+        return new Iterator<>() {
+            private Record next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Record next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                final Record result = next;
+                next = advance();
+                return result;
+            }
+
+            private Record advance() {
+                final int keyLength;
+                try {
+                    keyLength = in.readInt();
+                } catch (EOFException e) {
+                    return null;
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Can't read dump", e);
+                }
+                try {
+                    final ByteBuffer key = readBytes(in, keyLength);
+                    return Record.of(key, readBytes(in, in.readInt()));
+                } catch (EOFException e) {
+                    throw new IllegalArgumentException("Truncated dump", e);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Can't read dump", e);
+                }
+            }
+        };
+    }
+
+    private static void write(
+            @NotNull final DataOutputStream out,
+            @NotNull final ByteBuffer buffer) throws IOException {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @NotNull
+    private static ByteBuffer readBytes(
+            @NotNull final DataInputStream in,
+            final int length) throws IOException {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative length: " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static final class CountingIterator implements Iterator<Record> {
+        private final Iterator<Record> delegate;
+        private long count;
+
+        CountingIterator(@NotNull final Iterator<Record> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return delegate.hasNext();
+        }
+
+        @Override
+        public Record next() {
+            final Record result = delegate.next();
+            count++;
+            return result;
+        }
+    }
+}
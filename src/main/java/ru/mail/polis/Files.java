@@ -20,11 +20,15 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 /**
  * Utility methods for handling files.
@@ -75,6 +79,76 @@ public final class Files {
                 });
     }
 
+    /**
+     * Recreates the directory tree at "to" hard linking every file of "from",
+     * so it costs O(number of files) and shares the data with the source.
+     * Linked files must never be modified in place, e.g. immutable tables.
+     *
+     * @param to must not exist and must reside on the same file system
+     * @return the number of linked files
+     */
+    public static int hardLink(
+            @NotNull final File from,
+            @NotNull final File to) throws IOException {
+        return hardLink(from, to, file -> true);
+    }
+
+    /**
+     * Recreates the directory tree at "to" hard linking the immutable files of "from"
+     * and copying the others, e.g. a log appended in place, so that the later
+     * modifications of the source don't leak into the copy.
+     *
+     * @param to        must not exist and must reside on the same file system
+     * @param immutable checks the path of a file relative to "from"
+     * @return the number of linked files
+     */
+    public static int hardLink(
+            @NotNull final File from,
+            @NotNull final File to,
+            @NotNull final Predicate<Path> immutable) throws IOException {
+        final Path source = from.toPath();
+        final Path target = to.toPath();
+        final AtomicInteger result = new AtomicInteger();
+        java.nio.file.Files.walkFileTree(
+                source,
+                new SimpleFileVisitor<>() {
+                    @NotNull
+                    @Override
+                    public FileVisitResult preVisitDirectory(
+                            @NotNull final Path dir,
+                            @NotNull final BasicFileAttributes attrs) throws IOException {
+                        java.nio.file.Files.createDirectory(target.resolve(source.relativize(dir)));
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @NotNull
+                    @Override
+                    public FileVisitResult visitFile(
+                            @NotNull final Path file,
+                            @NotNull final BasicFileAttributes attrs) throws IOException {
+                        final Path relative = source.relativize(file);
+                        if (immutable.test(relative)) {
+                            java.nio.file.Files.createLink(target.resolve(relative), file);
+                            result.incrementAndGet();
+                        } else {
+                            java.nio.file.Files.copy(file, target.resolve(relative));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+        return result.get();
+    }
+
+    /**
+     * Makes the creations, the renames and the deletions of the directory entries durable,
+     * e.g. after an atomic move of a file into the directory.
+     */
+    public static void syncDirectory(@NotNull final File dir) throws IOException {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
     public static long directorySize(@NotNull final File path) throws IOException {
         final AtomicLong result = new AtomicLong(0L);
         java.nio.file.Files.walkFileTree(
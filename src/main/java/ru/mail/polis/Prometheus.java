@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Utility methods for rendering metrics in Prometheus text exposition format.
+ *
+ * @author IgorLo
+ */
+public final class Prometheus {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+    private Prometheus() {
+        // Don't instantiate
+    }
+
+    /**
+     * Appends {@code HELP} and {@code TYPE} lines of a metric family.
+     *
+     * @param type {@code counter}, {@code gauge} or {@code summary}
+     */
+    public static void family(
+            @NotNull final StringBuilder out,
+            @NotNull final String name,
+            @NotNull final String type,
+            @NotNull final String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Appends a sample.
+     *
+     * @param labels preformatted labels like {@code method="GET"} or empty string
+     */
+    public static void sample(
+            @NotNull final StringBuilder out,
+            @NotNull final String name,
+            @NotNull final String labels,
+            final double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Appends a single unlabeled metric.
+     */
+    public static void metric(
+            @NotNull final StringBuilder out,
+            @NotNull final String name,
+            @NotNull final String type,
+            @NotNull final String help,
+            final double value) {
+        family(out, name, type, help);
+        sample(out, name, "", value);
+    }
+}
@@ -16,6 +16,8 @@
 
 package ru.mail.polis;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import ru.mail.polis.dao.DAO;
 import ru.mail.polis.dao.DAOFactory;
 import ru.mail.polis.service.Service;
@@ -23,6 +25,7 @@ import ru.mail.polis.service.ServiceFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Starts storage and waits for shutdown.
@@ -31,6 +34,7 @@ import java.io.IOException;
  */
 public final class Server {
     private static final int PORT = 8080;
+    private static final Logger log = LoggerFactory.getLogger(Server.class);
 
     private Server() {
         // Not instantiable
@@ -40,13 +44,18 @@ public final class Server {
         // Temporary storage in the file system
         final File data = Files.createTempDirectory();
 
-        // Start the service
+        // Open the storage first not to accept requests before it is ready
+        final long start = System.nanoTime();
         final DAO dao = DAOFactory.create(data);
+        log.info("Storage opened in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        // Start the service
         final Service service =
                 ServiceFactory.create(
                         PORT,
                         dao);
         service.start();
+        log.info("Service started on port {} in {} ms", PORT, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
         Runtime.getRuntime().addShutdownHook(
                 new Thread(() -> {
                     service.stop();
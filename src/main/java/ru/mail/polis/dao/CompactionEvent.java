@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event to be emitted by a {@link DAO} implementation for every compaction.
+ *
+ * @author IgorLo
+ */
+@Name("ru.mail.polis.Compaction")
+@Label("Compaction")
+@Category({"Highload DHT", "Storage"})
+@Description("Tables merged into new ones")
+@StackTrace(false)
+public final class CompactionEvent extends jdk.jfr.Event {
+    @Label("Input Tables")
+    public int inputTables;
+
+    @Label("Output Tables")
+    public int outputTables;
+
+    @Label("Bytes Read")
+    @DataAmount
+    public long bytesRead;
+
+    @Label("Bytes Written")
+    @DataAmount
+    public long bytesWritten;
+
+    @Label("Records Dropped")
+    @Description("Overwritten, removed or expired records not written to the output")
+    public long recordsDropped;
+}
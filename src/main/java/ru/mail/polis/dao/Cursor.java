@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import java.nio.ByteBuffer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Reusable position in a sequence of records sorted by key.
+ * <p>
+ * A cursor is positioned <b>before</b> the first record on creation and after
+ * {@link #seek(ByteBuffer)}, so it is traversed with {@code while (cursor.next())}.
+ * Unlike {@link java.util.Iterator} of {@link ru.mail.polis.Record}s it doesn't have
+ * to allocate anything per step: {@link #key()} and {@link #value()} are read-only
+ * views which are valid only until the next call of {@link #next()} or
+ * {@link #seek(ByteBuffer)}. Their position and limit must not be changed,
+ * and they must be copied to be retained.
+ *
+ * @author IgorLo
+ */
+public interface Cursor {
+    /**
+     * Positions the cursor before the first record with key greater than or equal to "from".
+     *
+     * @throws UnsupportedOperationException if the cursor can't be repositioned
+     */
+    void seek(@NotNull ByteBuffer from);
+
+    /**
+     * Moves to the next record.
+     *
+     * @return {@code false} if there are no more records
+     */
+    boolean next();
+
+    /**
+     * Key of the current record, valid until the cursor moves.
+     */
+    @NotNull
+    ByteBuffer key();
+
+    /**
+     * Value of the current record, valid until the cursor moves.
+     */
+    @NotNull
+    ByteBuffer value();
+}
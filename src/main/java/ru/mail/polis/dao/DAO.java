@@ -21,10 +21,18 @@ import org.jetbrains.annotations.Nullable;
 import ru.mail.polis.Record;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Storage interface.
@@ -43,6 +51,46 @@ public interface DAO extends Closeable {
     @NotNull
     Iterator<Record> iterator(@NotNull ByteBuffer from) throws IOException;
 
+    /**
+     * Provides {@link Cursor} positioned before "from" key (inclusive) which doesn't allocate per record.
+     * <p>
+     * The default implementation adapts {@link #iterator(ByteBuffer)}, so storage engines
+     * are supposed to implement the cursor natively and provide {@link #iterator(ByteBuffer)}
+     * as {@link Iters#iterator(Cursor)} over it.
+     */
+    @NotNull
+    default Cursor cursor(@NotNull ByteBuffer from) throws IOException {
+        return new Cursor() {
+            private Cursor delegate = Iters.cursor(iterator(from));
+
+            @Override
+            public void seek(@NotNull final ByteBuffer to) {
+                try {
+                    delegate = Iters.cursor(iterator(to));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Can't seek", e);
+                }
+            }
+
+            @Override
+            public boolean next() {
+                return delegate.next();
+            }
+
+            @NotNull
+            @Override
+            public ByteBuffer key() {
+                return delegate.key();
+            }
+
+            @NotNull
+            @Override
+            public ByteBuffer value() {
+                return delegate.value();
+            }
+        };
+    }
+
     /**
      * Provides iterator (possibly empty) over {@link Record}s starting at "from" key (inclusive)
      * until given "to" key (exclusive) in <b>ascending</b> order according to {@link Record#compareTo(Record)}.
@@ -65,6 +113,88 @@ public interface DAO extends Closeable {
         return Iters.until(iterator(from), bound);
     }
 
+    /**
+     * Provides iterator (possibly empty) over {@link Record}s starting at "from" key (inclusive)
+     * until given "to" key (exclusive) in <b>descending</b> order according to {@link Record#compareTo(Record)},
+     * e.g. {@code descendingRange(EMPTY, x)} starts with the greatest key before {@code x}.
+     * The iterator throws {@link java.io.UncheckedIOException} on I/O errors.
+     * <p>
+     * Storage engines are supposed to seek backward from "to" in the memtables and the tables,
+     * e.g. merging {@link MemTables#descendingRange(ByteBuffer, ByteBuffer)} with the table cursors.
+     * The default implementation scans the segments between {@link #splitPoints(ByteBuffer, ByteBuffer, int)}
+     * backward from "to" in bounded chunks (see {@link DescendingIterator}), so it needs little memory
+     * and reads just the last segment for the first records.
+     */
+    @NotNull
+    default Iterator<Record> descendingRange(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        return new DescendingIterator(this, from, to, DescendingIterator.CHUNK);
+    }
+
+    /**
+     * Provides up to "parts - 1" ascending keys splitting the range into sub-ranges
+     * of roughly equal size, see {@link #parallelRange(ByteBuffer, ByteBuffer, int)}.
+     * <p>
+     * Storage engines are supposed to pick them from the table index samples without reading data.
+     * The default implementation doesn't split.
+     */
+    @NotNull
+    default List<ByteBuffer> splitPoints(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to,
+            int parts) throws IOException {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Provides parallel {@link Stream} over {@link Record}s starting at "from" key (inclusive)
+     * until given "to" key (exclusive) scanning the sub-ranges given by
+     * {@link #splitPoints(ByteBuffer, ByteBuffer, int)} on the common fork/join pool.
+     * The stream throws {@link java.io.UncheckedIOException} on I/O errors.
+     *
+     * @param parts the number of sub-ranges to aim for, e.g. a multiple of the cores
+     */
+    @NotNull
+    default Stream<Record> parallelRange(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to,
+            int parts) throws IOException {
+        final List<ByteBuffer> splits = new ArrayList<>();
+        for (final ByteBuffer split : splitPoints(from, to, parts)) {
+            // Tolerate the bounds themselves and duplicates
+            if (split.compareTo(from) > 0
+                    && (to == null || split.compareTo(to) < 0)
+                    && (splits.isEmpty() || split.compareTo(splits.get(splits.size() - 1)) > 0)) {
+                splits.add(split);
+            }
+        }
+        return StreamSupport.stream(new RangeSpliterator(this, from, to, splits), true);
+    }
+
+    /**
+     * Estimates the number of keys and bytes starting at "from" key (inclusive)
+     * until given "to" key (exclusive).
+     * <p>
+     * Storage engines are supposed to answer from the index samples and the table metadata
+     * with {@link RangeEstimator} without reading data. The default implementation
+     * counts exactly by scanning the range, the bytes being the sizes of the keys and values.
+     */
+    @NotNull
+    default RangeEstimator.Estimate estimate(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        long keys = 0;
+        long bytes = 0;
+        final Iterator<Record> records = range(from, to);
+        while (records.hasNext()) {
+            final Record record = records.next();
+            keys++;
+            bytes += record.getKey().remaining() + record.getValue().remaining();
+        }
+        return new RangeEstimator.Estimate(keys, bytes, 0L, 0L);
+    }
+
     /**
      * Obtains {@link Record} corresponding to given key.
      *
@@ -92,15 +222,149 @@ public interface DAO extends Closeable {
             @NotNull ByteBuffer key,
             @NotNull ByteBuffer value) throws IOException;
 
+    /**
+     * Inserts or updates value by given key expiring after the time to live.
+     * <p>
+     * An expired value is invisible to {@link #get(ByteBuffer)} and the iterators
+     * right away and is physically dropped by compaction, see {@link Expiry}.
+     *
+     * @param ttl positive time to live
+     * @throws UnsupportedOperationException if the storage doesn't support TTL
+     */
+    default void upsert(
+            @NotNull ByteBuffer key,
+            @NotNull ByteBuffer value,
+            @NotNull Duration ttl) throws IOException {
+        throw new UnsupportedOperationException("TTL is not supported");
+    }
+
     /**
      * Removes value by given key.
      */
     void remove(@NotNull ByteBuffer key) throws IOException;
 
+    /**
+     * Atomically replaces the value of the key with "update" if the current value equals "expected".
+     * <p>
+     * Storage engines are supposed to check and write under the {@link KeyLocks} stripe of the key
+     * taken by the plain writes too. The default implementation uses stripes shared by all the storages,
+     * so it is atomic only with respect to the other compare-and-set calls.
+     *
+     * @param expected {@code null} if the key must be absent
+     * @param update   {@code null} to remove the key
+     * @return whether the value has been replaced
+     */
+    default boolean compareAndSet(
+            @NotNull ByteBuffer key,
+            @Nullable ByteBuffer expected,
+            @Nullable ByteBuffer update) throws IOException {
+        return KeyLocks.SHARED.compareAndSet(this, key, expected, update);
+    }
+
+    /**
+     * Applies the upserts and the removes of the batch in order.
+     * <p>
+     * Storage engines are supposed to append the batch to the commit log as a single record
+     * with a single durability step and insert it into the memtable under a single sequence number
+     * (see {@link MemTables#write(WriteBatch)}), so readers see either all the operations or none.
+     * The default implementation applies the operations one by one, so it is not atomic.
+     */
+    default void write(@NotNull WriteBatch batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            final ByteBuffer value = batch.value(i);
+            if (value == null) {
+                remove(batch.key(i));
+            } else {
+                upsert(batch.key(i), value);
+            }
+        }
+    }
+
+    /**
+     * Removes all the keys starting at "from" key (inclusive) until "to" key (exclusive).
+     * <p>
+     * Storage engines are supposed to write a single range tombstone (see {@link RangeTombstones})
+     * hiding the keys from reads and letting compaction drop the covered data wholesale.
+     * The default implementation removes the keys one by one.
+     *
+     * @param to {@code null} to remove everything starting at "from"
+     */
+    default void removeRange(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        final int batch = 1024;
+        final List<ByteBuffer> keys = new ArrayList<>(batch);
+        ByteBuffer next = from;
+        while (true) {
+            // Don't modify the storage being iterated
+            final Iterator<Record> range = range(next, to);
+            while (keys.size() < batch && range.hasNext()) {
+                keys.add(range.next().getKey());
+            }
+            if (keys.isEmpty()) {
+                return;
+            }
+            for (final ByteBuffer key : keys) {
+                remove(key);
+            }
+            if (keys.size() < batch) {
+                return;
+            }
+            next = keys.get(keys.size() - 1);
+            keys.clear();
+        }
+    }
+
+    /**
+     * Loads {@link Record}s given in <b>strictly ascending</b> key order.
+     * <p>
+     * Storage engines are supposed to write the records straight into new immutable tables
+     * and register them with a single {@link Manifest#edit(java.util.Collection, java.util.Collection)},
+     * so that neither the memtable nor the commit log is involved and a failed load is not visible at all.
+     * The default implementation is only a fallback through the normal write path: it upserts
+     * the records one by one, and the records preceding a failure remain loaded and visible.
+     *
+     * @throws IllegalArgumentException if the records are not in strictly ascending key order
+     */
+    default void bulkLoad(@NotNull Iterator<Record> sorted) throws IOException {
+        final Iterator<Record> records = Iters.ascending(sorted);
+        while (records.hasNext()) {
+            final Record record = records.next();
+            upsert(record.getKey(), record.getValue());
+        }
+    }
+
+    /**
+     * Makes a consistent point-in-time copy of the storage in the destination directory.
+     * <p>
+     * Storage engines are supposed to flush the memtable, hard link the immutable tables,
+     * copy the files modified in place
+     * (see {@link ru.mail.polis.Files#hardLink(File, File, java.util.function.Predicate)})
+     * and rewrite the manifest with {@link Manifest#writeTo(File)}, so a snapshot costs
+     * O(number of files) rather than O(data size). The snapshot may be opened
+     * with {@link DAOFactory#createReadOnly(File)}.
+     *
+     * @param destination must not exist and must reside on the same file system
+     * @throws UnsupportedOperationException if the storage can't make snapshots
+     */
+    default void snapshot(@NotNull File destination) throws IOException {
+        throw new UnsupportedOperationException("Snapshots are not supported");
+    }
+
     /**
      * Perform compaction
      */
     default void compact() throws IOException {
         // Implement me when you get to stage 3
     }
+
+    /**
+     * Provides storage engine counters.
+     *
+     * @return {@code null} if the implementation is not instrumented
+     */
+    @Nullable
+    default StorageMetrics metrics() {
+        return null;
+    }
 }
@@ -55,4 +55,16 @@ public final class DAOFactory {
 
         throw new IllegalStateException("Not implemented yet");
     }
+
+    /**
+     * Construct a {@link DAO} instance rejecting modifications, e.g. over a snapshot
+     * made by {@link DAO#snapshot(File)}.
+     *
+     * @param data local disk folder with the persisted data
+     * @return a storage instance throwing {@link UnsupportedOperationException} on writes
+     */
+    @NotNull
+    public static DAO createReadOnly(@NotNull final File data) throws IOException {
+        return new ReadOnlyDAO(create(data));
+    }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Descending {@link Iterator} over a key range of a {@link DAO} built on the ascending scans only.
+ * <p>
+ * The range is cut into segments at {@link DAO#splitPoints(ByteBuffer, ByteBuffer, int)}, which are
+ * visited backward starting with the one before "to". A segment is scanned keeping just the last chunk
+ * of records, which is then returned in reverse, and the next chunk is the tail of the segment before
+ * the first key of the previous one. So the memory is bounded by the chunk, and a scan never reads
+ * beyond the current segment. Without split points the range is a single segment rescanned from
+ * "from" for every chunk. {@link IOException}s of the subsequent scans are rethrown
+ * as {@link UncheckedIOException}.
+ *
+ * @author IgorLo
+ */
+final class DescendingIterator implements Iterator<Record> {
+    static final int CHUNK = 1024;
+    static final int SEGMENTS = 1024;
+
+    private final DAO dao;
+    private final int chunk;
+    // Segment starts in ascending order, the first one is "from"
+    private final List<ByteBuffer> lowers;
+    private int segment;
+    private ByteBuffer to;
+    private Deque<Record> records = new ArrayDeque<>();
+    private boolean exhausted;
+
+    DescendingIterator(
+            @NotNull final DAO dao,
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final int chunk) throws IOException {
+        if (chunk <= 0) {
+            throw new IllegalArgumentException("Non-positive chunk: " + chunk);
+        }
+        this.dao = dao;
+        this.to = to;
+        this.chunk = chunk;
+        this.lowers = new ArrayList<>();
+        lowers.add(from);
+        if (to == null || from.compareTo(to) < 0) {
+            for (final ByteBuffer split : dao.splitPoints(from, to, SEGMENTS)) {
+                // Tolerate the bounds themselves and duplicates
+                if (split.compareTo(lowers.get(lowers.size() - 1)) > 0
+                        && (to == null || split.compareTo(to) < 0)) {
+                    lowers.add(split);
+                }
+            }
+        }
+        this.segment = lowers.size() - 1;
+        fill();
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            fill();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't scan range", e);
+        }
+        return !records.isEmpty();
+    }
+
+    @Override
+    public Record next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("Next on exhausted iterator");
+        }
+        return records.pollLast();
+    }
+
+    private void fill() throws IOException {
+        // Skip the empty segments
+        while (records.isEmpty() && !exhausted) {
+            refill();
+        }
+    }
+
+    private void refill() throws IOException {
+        final ByteBuffer lower = lowers.get(segment);
+        final Deque<Record> window = new ArrayDeque<>(chunk);
+        boolean dropped = false;
+        final Iterator<Record> range = dao.range(lower, to);
+        while (range.hasNext()) {
+            if (window.size() == chunk) {
+                window.pollFirst();
+                dropped = true;
+            }
+            window.addLast(range.next());
+        }
+        records = window;
+        if (dropped) {
+            to = window.getFirst().getKey();
+        } else if (segment > 0) {
+            to = lower;
+            segment--;
+        } else {
+            exhausted = true;
+        }
+    }
+}
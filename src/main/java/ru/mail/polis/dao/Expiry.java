@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+
+/**
+ * Stored value format of the storage engines supporting TTL, see
+ * {@link DAO#upsert(ByteBuffer, ByteBuffer, Duration)}.
+ * <p>
+ * The value is prefixed with its expiration time in epoch milliseconds,
+ * {@link #NEVER} for the values without TTL. An expired value must be treated
+ * like a tombstone: it hides the older versions of the key from reads,
+ * is turned into a tombstone by a partial compaction and is dropped
+ * by a compaction of all the tables, so the older versions are never resurrected.
+ *
+ * @author IgorLo
+ */
+public final class Expiry {
+    public static final long NEVER = Long.MAX_VALUE;
+
+    private Expiry() {
+        // Not instantiatable
+    }
+
+    /**
+     * Computes the expiration time saturating at {@link #NEVER}.
+     *
+     * @param ttl    positive time to live
+     * @param nowMs  current epoch milliseconds
+     */
+    public static long expiresAt(
+            @NotNull final Duration ttl,
+            final long nowMs) {
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Non-positive TTL: " + ttl);
+        }
+        try {
+            return Math.addExact(nowMs, ttl.toMillis());
+        } catch (ArithmeticException e) {
+            return NEVER;
+        }
+    }
+
+    /**
+     * Prefixes the value with the expiration time.
+     */
+    @NotNull
+    public static ByteBuffer wrap(
+            @NotNull final ByteBuffer value,
+            final long expiresAtMs) {
+        final ByteBuffer result = ByteBuffer.allocate(Long.BYTES + value.remaining());
+        result.putLong(expiresAtMs).put(value.duplicate());
+        result.rewind();
+        return result;
+    }
+
+    public static long expiresAt(@NotNull final ByteBuffer stored) {
+        return stored.getLong(stored.position());
+    }
+
+    public static boolean isExpired(
+            @NotNull final ByteBuffer stored,
+            final long nowMs) {
+        return expiresAt(stored) <= nowMs;
+    }
+
+    /**
+     * Strips the expiration time.
+     */
+    @NotNull
+    public static ByteBuffer value(@NotNull final ByteBuffer stored) {
+        final ByteBuffer result = stored.duplicate();
+        result.position(result.position() + Long.BYTES);
+        return result.slice();
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event emitted by {@link MemTables} for every memtable flush.
+ * <p>
+ * Usage: {@code begin()} before writing the table, fill in the fields and
+ * {@code commit()} once the table is durable.
+ *
+ * @author IgorLo
+ */
+@Name("ru.mail.polis.Flush")
+@Label("Memtable Flush")
+@Category({"Highload DHT", "Storage"})
+@Description("Memtable written to a new on-disk table")
+@StackTrace(false)
+public final class FlushEvent extends jdk.jfr.Event {
+    @Label("Table")
+    public String table;
+
+    @Label("Records")
+    public long records;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
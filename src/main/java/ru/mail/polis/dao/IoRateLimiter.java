@@ -0,0 +1,164 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket limiting the disk bandwidth of the background storage work.
+ * <p>
+ * Compaction {@link #acquire(int) waits} for the tokens, while flush
+ * {@link #acquireUrgent(int) takes them} right away running into debt paid off
+ * by the compaction, since a lagging flush stalls the writers. The rate is adapted
+ * by {@link #adjust()} in AIMD fashion: it is halved as soon as the foreground latency
+ * exceeds the target or the request queue builds up and grows linearly while
+ * the node is idle.
+ *
+ * @author IgorLo
+ */
+public final class IoRateLimiter {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final int INCREASE_STEPS = 16;
+
+    private final long minBytesPerSecond;
+    private final long maxBytesPerSecond;
+    private final long targetLatencyMicros;
+    private final LongSupplier foregroundLatencyMicros;
+    private final IntSupplier queueDepth;
+    private final int maxQueueDepth;
+    private final LongSupplier clock;
+
+    private long rate;
+    private double tokens;
+    private long refilled;
+
+    /**
+     * @param minBytesPerSecond       the rate not to go below not to fall behind the writes forever
+     * @param maxBytesPerSecond       the rate of an idle node
+     * @param targetLatencyMicros     foreground latency to keep, e.g. GET p99 SLO
+     * @param foregroundLatencyMicros recent foreground latency, e.g. GET p99 over the last period
+     * @param queueDepth              the number of requests waiting to be processed
+     * @param maxQueueDepth           queue depth considered as overload
+     */
+    public IoRateLimiter(
+            final long minBytesPerSecond,
+            final long maxBytesPerSecond,
+            final long targetLatencyMicros,
+            @NotNull final LongSupplier foregroundLatencyMicros,
+            @NotNull final IntSupplier queueDepth,
+            final int maxQueueDepth) {
+        this(
+                minBytesPerSecond,
+                maxBytesPerSecond,
+                targetLatencyMicros,
+                foregroundLatencyMicros,
+                queueDepth,
+                maxQueueDepth,
+                System::nanoTime);
+    }
+
+    IoRateLimiter(
+            final long minBytesPerSecond,
+            final long maxBytesPerSecond,
+            final long targetLatencyMicros,
+            @NotNull final LongSupplier foregroundLatencyMicros,
+            @NotNull final IntSupplier queueDepth,
+            final int maxQueueDepth,
+            @NotNull final LongSupplier clock) {
+        if (minBytesPerSecond <= 0 || maxBytesPerSecond < minBytesPerSecond) {
+            throw new IllegalArgumentException("Bad rate bounds");
+        }
+        this.minBytesPerSecond = minBytesPerSecond;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.targetLatencyMicros = targetLatencyMicros;
+        this.foregroundLatencyMicros = foregroundLatencyMicros;
+        this.queueDepth = queueDepth;
+        this.maxQueueDepth = maxQueueDepth;
+        this.clock = clock;
+        this.rate = maxBytesPerSecond;
+        this.tokens = maxBytesPerSecond;
+        this.refilled = clock.getAsLong();
+    }
+
+    /**
+     * Waits until the background work may read or write the given number of bytes.
+     */
+    public void acquire(final int bytes) throws InterruptedIOException {
+        long wait;
+        while ((wait = reserve(bytes, false)) > 0) {
+            LockSupport.parkNanos(this, wait);
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+        }
+    }
+
+    /**
+     * Accounts the I/O which can't wait, e.g. flush.
+     */
+    public void acquireUrgent(final int bytes) {
+        reserve(bytes, true);
+    }
+
+    /**
+     * Current rate in bytes per second.
+     */
+    public synchronized long rate() {
+        return rate;
+    }
+
+    /**
+     * Adapts the rate to the foreground load, supposed to be called periodically.
+     */
+    public void adjust() {
+        final long latency = foregroundLatencyMicros.getAsLong();
+        final int queued = queueDepth.getAsInt();
+        synchronized (this) {
+            if (latency > targetLatencyMicros || queued > maxQueueDepth) {
+                rate = Math.max(minBytesPerSecond, rate / 2);
+            } else if (latency <= targetLatencyMicros / 2 && queued == 0) {
+                final long step = Math.max(1L, maxBytesPerSecond / INCREASE_STEPS);
+                rate = Math.min(maxBytesPerSecond, rate + step);
+            }
+            // Don't let the burst exceed a second of the new rate
+            tokens = Math.min(tokens, rate);
+        }
+    }
+
+    /**
+     * @return nanoseconds to wait before retrying or {@code 0} if acquired
+     */
+    synchronized long reserve(
+            final int bytes,
+            final boolean urgent) {
+        final long now = clock.getAsLong();
+        tokens = Math.min(rate, tokens + (double) rate * (now - refilled) / NANOS_PER_SECOND);
+        refilled = now;
+        if (urgent || tokens >= 0) {
+            // A large request is let through and paid off by the next ones
+            tokens -= bytes;
+            return 0L;
+        }
+        return Math.max(1L, (long) (-tokens * NANOS_PER_SECOND / rate));
+    }
+}
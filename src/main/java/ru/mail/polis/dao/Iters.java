@@ -16,14 +16,20 @@
 
 package ru.mail.polis.dao;
 
+import java.nio.ByteBuffer;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.function.Function;
 
 import org.jetbrains.annotations.NotNull;
 
 import com.google.common.base.Functions;
 
+import ru.mail.polis.Record;
+
 /**
  * Utility methods for iterators.
  *
@@ -68,6 +74,64 @@ public final class Iters {
         return new CollapseEqualsIterator<>(iter);
     }
 
+    /**
+     * Passes the elements through checking that they go in strictly ascending order.
+     *
+     * @throws IllegalArgumentException from {@link Iterator#next()} on the first element out of order
+     */
+    public static <E extends Comparable<E>> Iterator<E> ascending(@NotNull final Iterator<E> iter) {
+        return new AscendingIterator<>(iter);
+    }
+
+    /**
+     * Adapts a {@link Cursor} to the {@link Iterator} of immutable {@link Record}s copying every record.
+     */
+    public static Iterator<Record> iterator(@NotNull final Cursor cursor) {
+        return new CursorIterator(cursor);
+    }
+
+    /**
+     * Adapts an {@link Iterator} to a {@link Cursor} which can't be repositioned.
+     */
+    public static Cursor cursor(@NotNull final Iterator<Record> iter) {
+        return new IteratorCursor(iter);
+    }
+
+    /**
+     * Stops the cursor before the first key greater than or equal to "until".
+     */
+    public static Cursor until(
+            @NotNull final Cursor cursor,
+            @NotNull final ByteBuffer until) {
+        return new UntilCursor(cursor, until);
+    }
+
+    /**
+     * Merges the sorted cursors collapsing equal keys.
+     *
+     * @param cursors the cursors in order of priority: for equal keys the record
+     *                of the first cursor wins, e.g. the newest table goes first
+     */
+    public static Cursor merge(@NotNull final List<Cursor> cursors) {
+        if (cursors.size() == 1) {
+            return cursors.get(0);
+        }
+        return new MergeCursor(cursors);
+    }
+
+    /**
+     * Merges the iterators sorted in the given order collapsing equal elements, e.g. the descending
+     * entries of the memtables with a reversed comparator. Only the head of every iterator is held.
+     *
+     * @param iters the iterators in order of priority: for equal elements the one
+     *              of the first iterator wins, e.g. the newest memtable goes first
+     */
+    public static <E> Iterator<E> merge(
+            @NotNull final List<? extends Iterator<E>> iters,
+            @NotNull final Comparator<? super E> order) {
+        return new MergeIterator<>(iters, order);
+    }
+
     private static class UntilIterator<E extends Comparable<E>> implements Iterator<E> {
         private final Iterator<E> iter;
         private final E until;
@@ -97,6 +161,67 @@ public final class Iters {
         }
     }
 
+    /**
+     * K-way merge over a heap of the iterator heads, ties are broken by the iterator index.
+     */
+    private static class MergeIterator<E> implements Iterator<E> {
+        private final List<? extends Iterator<E>> iters;
+        private final Comparator<? super E> order;
+        private final PriorityQueue<Head<E>> heads;
+
+        MergeIterator(
+                @NotNull final List<? extends Iterator<E>> iters,
+                @NotNull final Comparator<? super E> order) {
+            this.iters = iters;
+            this.order = order;
+            this.heads = new PriorityQueue<>(Math.max(1, iters.size()), (left, right) -> {
+                final int cmp = order.compare(left.element, right.element);
+                return cmp != 0 ? cmp : Integer.compare(left.index, right.index);
+            });
+            for (int i = 0; i < iters.size(); i++) {
+                advance(i);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public E next() {
+            if (heads.isEmpty()) {
+                throw new NoSuchElementException("Next on exhausted iterator");
+            }
+            final Head<E> top = heads.poll();
+            advance(top.index);
+            // Drop the equal elements of the iterators of lower priority
+            while (!heads.isEmpty() && order.compare(heads.peek().element, top.element) == 0) {
+                advance(heads.poll().index);
+            }
+            return top.element;
+        }
+
+        private void advance(final int index) {
+            final Iterator<E> iter = iters.get(index);
+            if (iter.hasNext()) {
+                heads.add(new Head<>(iter.next(), index));
+            }
+        }
+    }
+
+    private static final class Head<E> {
+        private final E element;
+        private final int index;
+
+        Head(
+                final E element,
+                final int index) {
+            this.element = element;
+            this.index = index;
+        }
+    }
+
     private static class CollapseEqualsIterator<E> implements Iterator<E> {
         private final Iterator<E> iter;
         private final Function<E, ?> keyExtractor;
@@ -140,4 +265,284 @@ public final class Iters {
             return result;
         }
     }
+
+    private static class AscendingIterator<E extends Comparable<E>> implements Iterator<E> {
+        private final Iterator<E> iter;
+
+        private E previous;
+
+        AscendingIterator(@NotNull final Iterator<E> iter) {
+            this.iter = iter;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iter.hasNext();
+        }
+
+        @Override
+        public E next() {
+            final E next = iter.next();
+            if (previous != null && previous.compareTo(next) >= 0) {
+                throw new IllegalArgumentException("Not in strictly ascending order");
+            }
+            previous = next;
+            return next;
+        }
+    }
+
+    private static class CursorIterator implements Iterator<Record> {
+        private final Cursor cursor;
+
+        private Boolean hasNext;
+
+        CursorIterator(@NotNull final Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (hasNext == null) {
+                hasNext = cursor.next();
+            }
+            return hasNext;
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Next on exhausted cursor");
+            }
+            hasNext = null;
+            return Record.of(copy(cursor.key()), copy(cursor.value()));
+        }
+
+        private static ByteBuffer copy(@NotNull final ByteBuffer view) {
+            final ByteBuffer result = ByteBuffer.allocate(view.remaining());
+            result.put(view.duplicate());
+            result.rewind();
+            return result;
+        }
+    }
+
+    private static class IteratorCursor implements Cursor {
+        private final Iterator<Record> iter;
+
+        private Record current;
+        private ByteBuffer key;
+        private ByteBuffer value;
+
+        IteratorCursor(@NotNull final Iterator<Record> iter) {
+            this.iter = iter;
+        }
+
+        @Override
+        public void seek(@NotNull final ByteBuffer from) {
+            throw new UnsupportedOperationException("Iterator can't be repositioned");
+        }
+
+        @Override
+        public boolean next() {
+            current = iter.hasNext() ? iter.next() : null;
+            key = null;
+            value = null;
+            return current != null;
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer key() {
+            // Record allocates a view per call, so cache it for comparisons
+            if (key == null) {
+                key = current().getKey();
+            }
+            return key;
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer value() {
+            if (value == null) {
+                value = current().getValue();
+            }
+            return value;
+        }
+
+        private Record current() {
+            if (current == null) {
+                throw new NoSuchElementException("Cursor is not positioned");
+            }
+            return current;
+        }
+    }
+
+    private static class UntilCursor implements Cursor {
+        private final Cursor cursor;
+        private final ByteBuffer until;
+
+        private boolean done;
+
+        UntilCursor(
+                @NotNull final Cursor cursor,
+                @NotNull final ByteBuffer until) {
+            this.cursor = cursor;
+            this.until = until;
+        }
+
+        @Override
+        public void seek(@NotNull final ByteBuffer from) {
+            cursor.seek(from);
+            done = false;
+        }
+
+        @Override
+        public boolean next() {
+            if (done) {
+                return false;
+            }
+            done = !cursor.next() || cursor.key().compareTo(until) >= 0;
+            return !done;
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer key() {
+            return cursor.key();
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer value() {
+            return cursor.value();
+        }
+    }
+
+    /**
+     * K-way merge over a binary heap of cursor indices, ties are broken by the index.
+     */
+    private static class MergeCursor implements Cursor {
+        private final Cursor[] cursors;
+        private final int[] heap;
+        private final int[] equal;
+
+        private int size;
+        private boolean started;
+
+        MergeCursor(@NotNull final List<Cursor> cursors) {
+            this.cursors = cursors.toArray(new Cursor[0]);
+            this.heap = new int[this.cursors.length];
+            this.equal = new int[this.cursors.length];
+        }
+
+        @Override
+        public void seek(@NotNull final ByteBuffer from) {
+            for (final Cursor cursor : cursors) {
+                cursor.seek(from);
+            }
+            size = 0;
+            started = false;
+        }
+
+        @Override
+        public boolean next() {
+            if (!started) {
+                started = true;
+                for (int i = 0; i < cursors.length; i++) {
+                    if (cursors[i].next()) {
+                        push(i);
+                    }
+                }
+                return size > 0;
+            }
+
+            if (size == 0) {
+                return false;
+            }
+
+            // Pop the current key from all the cursors before moving any of them
+            final int top = pop();
+            equal[0] = top;
+            int equals = 1;
+            final ByteBuffer key = cursors[top].key();
+            while (size > 0 && cursors[heap[0]].key().equals(key)) {
+                equal[equals++] = pop();
+            }
+
+            for (int i = 0; i < equals; i++) {
+                if (cursors[equal[i]].next()) {
+                    push(equal[i]);
+                }
+            }
+            return size > 0;
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer key() {
+            return top().key();
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer value() {
+            return top().value();
+        }
+
+        private Cursor top() {
+            if (size == 0) {
+                throw new NoSuchElementException("Cursor is not positioned");
+            }
+            return cursors[heap[0]];
+        }
+
+        private boolean less(
+                final int left,
+                final int right) {
+            final int cmp = cursors[left].key().compareTo(cursors[right].key());
+            return cmp < 0 || (cmp == 0 && left < right);
+        }
+
+        private void push(final int cursor) {
+            int i = size++;
+            heap[i] = cursor;
+            while (i > 0) {
+                final int parent = (i - 1) / 2;
+                if (!less(heap[i], heap[parent])) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private int pop() {
+            final int result = heap[0];
+            heap[0] = heap[--size];
+            int i = 0;
+            while (true) {
+                final int left = 2 * i + 1;
+                final int right = left + 1;
+                int smallest = i;
+                if (left < size && less(heap[left], heap[smallest])) {
+                    smallest = left;
+                }
+                if (right < size && less(heap[right], heap[smallest])) {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    return result;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(
+                final int i,
+                final int j) {
+            final int tmp = heap[i];
+            heap[i] = heap[j];
+            heap[j] = tmp;
+        }
+    }
 }
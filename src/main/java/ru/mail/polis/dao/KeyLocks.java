@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import com.google.common.util.concurrent.Striped;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Locks striped by key hash serializing the read-modify-write operations of the same key,
+ * while the operations of different keys rarely contend and never take a global lock.
+ *
+ * @author IgorLo
+ */
+public final class KeyLocks {
+    /**
+     * Used by the default {@link DAO#compareAndSet(ByteBuffer, ByteBuffer, ByteBuffer)}.
+     */
+    static final KeyLocks SHARED = new KeyLocks(1024);
+
+    private final Striped<Lock> stripes;
+
+    /**
+     * @param stripes the number of locks, rounded up to a power of two
+     */
+    public KeyLocks(final int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("Non-positive stripes: " + stripes);
+        }
+        this.stripes = Striped.lock(stripes);
+    }
+
+    /**
+     * Obtains the lock of the key, equal keys always share the lock.
+     */
+    @NotNull
+    public Lock get(@NotNull final ByteBuffer key) {
+        return stripes.get(key);
+    }
+
+    /**
+     * Replaces the value of the key with "update" if the current value equals "expected"
+     * holding the lock of the key.
+     * <p>
+     * The check is atomic with respect to the other operations taking the lock of the key,
+     * so storage engines are supposed to take it in {@link DAO#upsert(ByteBuffer, ByteBuffer)}
+     * and {@link DAO#remove(ByteBuffer)} as well.
+     *
+     * @param expected {@code null} if the key must be absent
+     * @param update   {@code null} to remove the key
+     * @return whether the value has been replaced
+     */
+    public boolean compareAndSet(
+            @NotNull final DAO dao,
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer expected,
+            @Nullable final ByteBuffer update) throws IOException {
+        final Lock lock = get(key);
+        lock.lock();
+        try {
+            if (!Objects.equals(current(dao, key), expected)) {
+                return false;
+            }
+            if (update == null) {
+                dao.remove(key);
+            } else {
+                dao.upsert(key, update);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Obtains the current value of the key in the form
+     * {@link #compareAndSet(DAO, ByteBuffer, ByteBuffer, ByteBuffer)} expects.
+     *
+     * @return {@code null} if the key is absent
+     */
+    @Nullable
+    public static ByteBuffer current(
+            @NotNull final DAO dao,
+            @NotNull final ByteBuffer key) throws IOException {
+        try {
+            return dao.get(key);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.Files;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the live tables of a storage.
+ * <p>
+ * Every flush and compaction appends a single checksummed edit adding and removing tables,
+ * so the set of live tables and their metadata is known after reading just this file:
+ * no directory listing and no probing of the files, so any trash in the directory is ignored.
+ * A torn edit at the tail (a crash in the middle of an append) is discarded on open,
+ * while a checksum mismatch followed by more edits is reported as corruption.
+ * A failed append is cut off right away, so the later edits are never appended after it.
+ * The log is rewritten with the live tables only once it accumulates enough edits.
+ * <p>
+ * Format: {@code (length:int, crc32:int, count:int, (op:byte, ...)*)*}.
+ *
+ * @author IgorLo
+ */
+public final class Manifest implements Closeable {
+    public static final String NAME = "MANIFEST";
+
+    private static final String TEMP = NAME + ".tmp";
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final int HEADER = 2 * Integer.BYTES;
+    private static final int REWRITE_EDITS = 1024;
+
+    private final Path path;
+    private final NavigableMap<Long, Table> live = new TreeMap<>();
+    private FileChannel channel;
+    private int edits;
+    private IOException failure;
+
+    private Manifest(@NotNull final Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Opens or creates the manifest in the storage directory replaying the edits.
+     */
+    @NotNull
+    public static Manifest open(@NotNull final File data) throws IOException {
+        final Manifest manifest = new Manifest(data.toPath().resolve(NAME));
+        manifest.replay();
+        return manifest;
+    }
+
+    /**
+     * Obtains the live tables in ascending generation order.
+     */
+    @NotNull
+    public synchronized List<Table> tables() {
+        return new ArrayList<>(live.values());
+    }
+
+    /**
+     * Registers a flushed table.
+     */
+    public void add(@NotNull final Table table) throws IOException {
+        edit(Collections.singletonList(table), Collections.emptyList());
+    }
+
+    /**
+     * Atomically replaces the compacted tables with the result of compaction.
+     *
+     * @param added   the new tables
+     * @param removed generations of the replaced tables
+     */
+    public synchronized void edit(
+            @NotNull final Collection<Table> added,
+            @NotNull final Collection<Long> removed) throws IOException {
+        int size = HEADER + Integer.BYTES + removed.size() * (1 + Long.BYTES);
+        for (final Table table : added) {
+            size += 1 + table.size();
+        }
+        final ByteBuffer edit = ByteBuffer.allocate(size);
+        edit.position(HEADER);
+        edit.putInt(added.size() + removed.size());
+        for (final Table table : added) {
+            edit.put(ADD);
+            table.write(edit);
+        }
+        for (final long generation : removed) {
+            edit.put(REMOVE).putLong(generation);
+        }
+        seal(edit);
+
+        if (failure != null) {
+            throw new IOException("Manifest failed " + path, failure);
+        }
+        final long position = channel.position();
+        try {
+            write(channel, edit);
+            channel.force(false);
+        } catch (IOException e) {
+            cutOff(position, e);
+            throw e;
+        }
+        apply(edit.position(HEADER + Integer.BYTES), added.size() + removed.size());
+
+        if (++edits > REWRITE_EDITS) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Replaces the log with a single edit adding the live tables.
+     */
+    public synchronized void rewrite() throws IOException {
+        final Path temp = path.resolveSibling(TEMP);
+        writeLive(temp);
+        try {
+            java.nio.file.Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The log stays as is and keeps taking the edits
+            java.nio.file.Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        // The open channel writes to the replaced file from now on
+        final FileChannel replaced = channel;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            replaced.close();
+        }
+        edits = 0;
+        failure = null;
+        Files.syncDirectory(path.getParent().toFile());
+    }
+
+    /**
+     * Writes the current live tables as a new manifest into the directory, e.g. a snapshot
+     * made with {@link Files#hardLink(File, File, java.util.function.Predicate)}, replacing
+     * the copied log so that the snapshot matches the tables linked under the same lock.
+     */
+    public synchronized void writeTo(@NotNull final File dir) throws IOException {
+        writeLive(dir.toPath().resolve(NAME));
+    }
+
+    private void writeLive(@NotNull final Path file) throws IOException {
+        try (FileChannel out = FileChannel.open(
+                file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            int size = HEADER + Integer.BYTES;
+            for (final Table table : live.values()) {
+                size += 1 + table.size();
+            }
+            final ByteBuffer edit = ByteBuffer.allocate(size);
+            edit.position(HEADER);
+            edit.putInt(live.size());
+            for (final Table table : live.values()) {
+                edit.put(ADD);
+                table.write(edit);
+            }
+            seal(edit);
+            write(out, edit);
+            out.force(true);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void replay() throws IOException {
+        long valid = 0;
+        if (java.nio.file.Files.exists(path)) {
+            final ByteBuffer log = ByteBuffer.wrap(java.nio.file.Files.readAllBytes(path));
+            while (log.remaining() >= HEADER) {
+                final int length = log.getInt();
+                final int crc = log.getInt();
+                if (length > log.remaining()) {
+                    break;
+                }
+                final ByteBuffer payload = log.slice();
+                payload.limit(Math.max(length, 0));
+                if (length < Integer.BYTES || crc != crc(payload.duplicate())) {
+                    if (length == log.remaining()) {
+                        // The last edit is torn
+                        break;
+                    }
+                    throw new IOException("Corrupted manifest " + path + " at " + (log.position() - HEADER));
+                }
+                try {
+                    apply(payload, payload.getInt());
+                } catch (BufferUnderflowException | IllegalArgumentException e) {
+                    throw new IOException("Corrupted manifest " + path, e);
+                }
+                log.position(log.position() + length);
+                valid = log.position();
+                edits++;
+            }
+        }
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Drop the torn tail not to append after it
+        channel.truncate(valid);
+        channel.position(valid);
+        channel.force(true);
+    }
+
+    /**
+     * Truncates the failed append, or refuses any further edits if even that fails.
+     */
+    private void cutOff(
+            final long position,
+            @NotNull final IOException cause) {
+        try {
+            channel.truncate(position);
+            channel.position(position);
+            channel.force(false);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+            failure = cause;
+        }
+    }
+
+    private void apply(
+            @NotNull final ByteBuffer edit,
+            final int count) {
+        for (int i = 0; i < count; i++) {
+            final byte op = edit.get();
+            switch (op) {
+                case ADD:
+                    final Table table = Table.read(edit);
+                    live.put(table.generation, table);
+                    break;
+                case REMOVE:
+                    live.remove(edit.getLong());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operation " + op);
+            }
+        }
+    }
+
+    private static void seal(@NotNull final ByteBuffer edit) {
+        final int length = edit.position() - HEADER;
+        edit.flip();
+        final ByteBuffer payload = edit.duplicate();
+        payload.position(HEADER);
+        edit.putInt(0, length);
+        edit.putInt(Integer.BYTES, crc(payload));
+    }
+
+    private static int crc(@NotNull final ByteBuffer payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static void write(
+            @NotNull final FileChannel channel,
+            @NotNull final ByteBuffer buffer) throws IOException {
+        final ByteBuffer src = buffer.duplicate();
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+
+    /**
+     * Metadata of a live table.
+     */
+    public static final class Table {
+        private final long generation;
+        private final String file;
+        private final ByteBuffer minKey;
+        private final ByteBuffer maxKey;
+        private final long records;
+        private final long filterOffset;
+
+        /**
+         * @param generation   unique increasing number of the table
+         * @param file         file name relative to the storage directory
+         * @param minKey       the least key in the table
+         * @param maxKey       the greatest key in the table
+         * @param records      the number of records including tombstones
+         * @param filterOffset offset of the key filter in the file
+         */
+        public Table(
+                final long generation,
+                @NotNull final String file,
+                @NotNull final ByteBuffer minKey,
+                @NotNull final ByteBuffer maxKey,
+                final long records,
+                final long filterOffset) {
+            this.generation = generation;
+            this.file = file;
+            this.minKey = copy(minKey);
+            this.maxKey = copy(maxKey);
+            this.records = records;
+            this.filterOffset = filterOffset;
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+
+        @NotNull
+        public String getFile() {
+            return file;
+        }
+
+        @NotNull
+        public ByteBuffer getMinKey() {
+            return minKey.asReadOnlyBuffer();
+        }
+
+        @NotNull
+        public ByteBuffer getMaxKey() {
+            return maxKey.asReadOnlyBuffer();
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public long getFilterOffset() {
+            return filterOffset;
+        }
+
+        private int size() {
+            return Long.BYTES
+                    + Integer.BYTES + file.getBytes(StandardCharsets.UTF_8).length
+                    + Integer.BYTES + minKey.remaining()
+                    + Integer.BYTES + maxKey.remaining()
+                    + Long.BYTES
+                    + Long.BYTES;
+        }
+
+        private void write(@NotNull final ByteBuffer out) {
+            out.putLong(generation);
+            final byte[] name = file.getBytes(StandardCharsets.UTF_8);
+            out.putInt(name.length).put(name);
+            out.putInt(minKey.remaining()).put(minKey.duplicate());
+            out.putInt(maxKey.remaining()).put(maxKey.duplicate());
+            out.putLong(records);
+            out.putLong(filterOffset);
+        }
+
+        @NotNull
+        private static Table read(@NotNull final ByteBuffer in) {
+            final long generation = in.getLong();
+            final String file = StandardCharsets.UTF_8.decode(bytes(in)).toString();
+            final ByteBuffer minKey = bytes(in);
+            final ByteBuffer maxKey = bytes(in);
+            return new Table(generation, file, minKey, maxKey, in.getLong(), in.getLong());
+        }
+
+        @NotNull
+        private static ByteBuffer bytes(@NotNull final ByteBuffer in) {
+            final int length = in.getInt();
+            if (length < 0 || length > in.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            final ByteBuffer result = in.slice();
+            result.limit(length);
+            in.position(in.position() + length);
+            return result;
+        }
+
+        @NotNull
+        private static ByteBuffer copy(@NotNull final ByteBuffer buffer) {
+            final ByteBuffer result = ByteBuffer.allocate(buffer.remaining());
+            result.put(buffer.duplicate());
+            result.rewind();
+            return result;
+        }
+    }
+}
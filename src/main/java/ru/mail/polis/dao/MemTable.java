@@ -0,0 +1,526 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import com.google.common.collect.Iterators;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free sorted multi-version in-memory table with the keys and values in an off-heap arena.
+ * <p>
+ * The bytes are copied into a single preallocated direct buffer by bumping an offset,
+ * so neither the heap nor the GC is loaded with the data. When the arena is exhausted
+ * the writes are rejected and the owner replaces the table with a fresh one
+ * (see {@link MemTables}). A removed key is mapped to {@link #TOMBSTONE}.
+ * <p>
+ * Every write adds a version of the key tagged with the sequence number allocated
+ * by the {@link SnapshotTracker} instead of replacing the value, so the reads through
+ * a {@link SnapshotTracker.Snapshot} see exactly the writes published before it
+ * regardless of the concurrent ones and never block them. The versions no snapshot
+ * needs are dropped by {@link #trim()}, the arena space is reclaimed by the flush only.
+ *
+ * @author IgorLo
+ */
+public final class MemTable {
+    /**
+     * Value of a removed key, compared by identity, see {@link #isTombstone(ByteBuffer)}.
+     */
+    static final ByteBuffer TOMBSTONE = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private static final long FROZEN = Long.MIN_VALUE;
+
+    private final ConcurrentSkipListMap<Version, ByteBuffer> map = new ConcurrentSkipListMap<>();
+    private final SnapshotTracker tracker;
+    private final ByteBuffer arena;
+    private final AtomicInteger used = new AtomicInteger();
+    // Number of the writers in progress and the frozen bit
+    private final AtomicLong writers = new AtomicLong();
+
+    /**
+     * @param capacity size of the off-heap arena in bytes
+     */
+    public MemTable(final int capacity) {
+        this(capacity, new SnapshotTracker(0L));
+    }
+
+    /**
+     * @param capacity size of the off-heap arena in bytes
+     * @param tracker  allocates the sequence numbers of the writes
+     */
+    public MemTable(
+            final int capacity,
+            @NotNull final SnapshotTracker tracker) {
+        this.arena = ByteBuffer.allocateDirect(capacity);
+        this.tracker = tracker;
+    }
+
+    /**
+     * Inserts or replaces the value.
+     *
+     * @return {@code false} if the table is frozen or full
+     */
+    public boolean upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        return put(key, value);
+    }
+
+    /**
+     * Replaces the value with a tombstone.
+     *
+     * @return {@code false} if the table is frozen or full
+     */
+    public boolean remove(@NotNull final ByteBuffer key) {
+        return put(key, null);
+    }
+
+    /**
+     * Inserts all the operations of the batch under a single sequence number,
+     * so a snapshot sees either the whole batch or none of it.
+     *
+     * @return {@code false} if the table is frozen or the whole batch doesn't fit
+     */
+    public boolean write(@NotNull final WriteBatch batch) {
+        if (!enter()) {
+            return false;
+        }
+        try {
+            int offset = reserve(batch.bytes());
+            if (offset < 0) {
+                return false;
+            }
+            final long sequence = tracker.next();
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    final ByteBuffer key = batch.key(i);
+                    final ByteBuffer value = batch.value(i);
+                    final ByteBuffer keyCopy = copy(key, offset);
+                    offset += key.remaining();
+                    ByteBuffer valueCopy = TOMBSTONE;
+                    if (value != null) {
+                        valueCopy = copy(value, offset);
+                        offset += value.remaining();
+                    }
+                    // The same key twice shares the version, so the later operation wins
+                    map.put(new Version(keyCopy, sequence), valueCopy);
+                }
+            } finally {
+                tracker.publish(sequence);
+            }
+            return true;
+        } finally {
+            writers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Obtains the latest value of the key.
+     *
+     * @return {@code null} if the key is absent or a {@link #isTombstone(ByteBuffer) tombstone} if removed
+     */
+    @Nullable
+    public ByteBuffer get(@NotNull final ByteBuffer key) {
+        return get(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * Obtains the value of the key as of the snapshot.
+     *
+     * @return {@code null} if the key is absent or a {@link #isTombstone(ByteBuffer) tombstone} if removed
+     */
+    @Nullable
+    public ByteBuffer get(
+            @NotNull final ByteBuffer key,
+            @NotNull final SnapshotTracker.Snapshot snapshot) {
+        return get(key, snapshot.getSequence());
+    }
+
+    /**
+     * Provides the latest entries starting at "from" key (inclusive) including the tombstones.
+     */
+    @NotNull
+    public Iterator<Map.Entry<ByteBuffer, ByteBuffer>> entries(@NotNull final ByteBuffer from) {
+        return new VersionIterator(map, from, Long.MAX_VALUE);
+    }
+
+    /**
+     * Provides the entries as of the snapshot starting at "from" key (inclusive) including the tombstones.
+     */
+    @NotNull
+    public Iterator<Map.Entry<ByteBuffer, ByteBuffer>> entries(
+            @NotNull final ByteBuffer from,
+            @NotNull final SnapshotTracker.Snapshot snapshot) {
+        return new VersionIterator(map, from, snapshot.getSequence());
+    }
+
+    /**
+     * Provides the latest entries starting at "from" key (inclusive) until "to" key (exclusive)
+     * in descending order including the tombstones.
+     *
+     * @param to {@code null} to start with the greatest key
+     */
+    @NotNull
+    public Iterator<Map.Entry<ByteBuffer, ByteBuffer>> descendingEntries(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        return new DescendingVersionIterator(map, from, to, Long.MAX_VALUE);
+    }
+
+    /**
+     * Provides the entries as of the snapshot starting at "from" key (inclusive) until "to" key (exclusive)
+     * in descending order including the tombstones.
+     *
+     * @param to {@code null} to start with the greatest key
+     */
+    @NotNull
+    public Iterator<Map.Entry<ByteBuffer, ByteBuffer>> descendingEntries(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            @NotNull final SnapshotTracker.Snapshot snapshot) {
+        return new DescendingVersionIterator(map, from, to, snapshot.getSequence());
+    }
+
+    /**
+     * Provides the live {@link Record}s as of the snapshot starting at "from" key (inclusive).
+     */
+    @NotNull
+    public Iterator<Record> iterator(
+            @NotNull final ByteBuffer from,
+            @NotNull final SnapshotTracker.Snapshot snapshot) {
+        return Iterators.transform(
+                Iterators.filter(entries(from, snapshot), e -> !isTombstone(e.getValue())),
+                e -> Record.of(e.getKey(), e.getValue()));
+    }
+
+    /**
+     * Drops the versions shadowed for all the live snapshots.
+     *
+     * @return the number of versions dropped
+     */
+    public int trim() {
+        final long oldest = tracker.oldest();
+        int dropped = 0;
+        ByteBuffer key = null;
+        boolean visible = false;
+        for (final Iterator<Version> iter = map.keySet().iterator(); iter.hasNext(); ) {
+            final Version version = iter.next();
+            if (!version.key.equals(key)) {
+                key = version.key;
+                visible = false;
+            }
+            if (version.sequence > oldest) {
+                // Might be needed by a live snapshot
+                continue;
+            }
+            if (visible) {
+                // Shadowed by a version visible to the oldest snapshot
+                iter.remove();
+                dropped++;
+            }
+            visible = true;
+        }
+        return dropped;
+    }
+
+    public static boolean isTombstone(@NotNull final ByteBuffer value) {
+        return value == TOMBSTONE;
+    }
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    /**
+     * The number of the versions of all the keys.
+     */
+    public int count() {
+        return map.size();
+    }
+
+    /**
+     * The number of the arena bytes used.
+     */
+    public int bytes() {
+        return used.get();
+    }
+
+    /**
+     * Rejects further writes.
+     */
+    void freeze() {
+        long current;
+        do {
+            current = writers.get();
+        } while ((current & FROZEN) == 0 && !writers.compareAndSet(current, current | FROZEN));
+    }
+
+    /**
+     * Waits for the writes started before {@link #freeze()}, so the table is immutable afterwards.
+     */
+    void awaitWriters() {
+        while (writers.get() != FROZEN) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Nullable
+    private ByteBuffer get(
+            @NotNull final ByteBuffer key,
+            final long sequence) {
+        final Map.Entry<Version, ByteBuffer> entry = map.ceilingEntry(new Version(key, sequence));
+        if (entry == null || !entry.getKey().key.equals(key)) {
+            return null;
+        }
+        return entry.getValue();
+    }
+
+    private boolean put(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) {
+        if (!enter()) {
+            return false;
+        }
+        try {
+            final int offset = reserve(required(key, value));
+            if (offset < 0) {
+                return false;
+            }
+            final ByteBuffer keyCopy = copy(key, offset);
+            final ByteBuffer valueCopy = value == null ? TOMBSTONE : copy(value, offset + key.remaining());
+            // Allocated only once the write can't fail, every sequence number must be published
+            final long sequence = tracker.next();
+            try {
+                map.put(new Version(keyCopy, sequence), valueCopy);
+            } finally {
+                tracker.publish(sequence);
+            }
+            return true;
+        } finally {
+            writers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Registers a writer unless the table is frozen.
+     */
+    private boolean enter() {
+        long current;
+        do {
+            current = writers.get();
+            if ((current & FROZEN) != 0) {
+                return false;
+            }
+        } while (!writers.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * @return the offset of the reserved arena bytes or {@code -1} if they don't fit
+     */
+    private int reserve(final long size) {
+        int offset;
+        do {
+            offset = used.get();
+            if (offset + size > arena.capacity()) {
+                return -1;
+            }
+        } while (!used.compareAndSet(offset, offset + (int) size));
+        return offset;
+    }
+
+    @NotNull
+    private ByteBuffer copy(
+            @NotNull final ByteBuffer src,
+            final int offset) {
+        final ByteBuffer result = arena.duplicate();
+        result.position(offset);
+        result.limit(offset + src.remaining());
+        result.put(src.duplicate());
+        result.position(offset);
+        return result.slice().asReadOnlyBuffer();
+    }
+
+    static int required(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) {
+        return key.remaining() + (value == null ? 0 : value.remaining());
+    }
+
+    /**
+     * Key ascending, then sequence number descending.
+     */
+    private static final class Version implements Comparable<Version> {
+        private final ByteBuffer key;
+        private final long sequence;
+
+        Version(
+                @NotNull final ByteBuffer key,
+                final long sequence) {
+            this.key = key;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(@NotNull final Version other) {
+            final int keys = key.compareTo(other.key);
+            return keys != 0 ? keys : Long.compare(other.sequence, sequence);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Version && compareTo((Version) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() * 31 + Long.hashCode(sequence);
+        }
+    }
+
+    /**
+     * Seeks the newest visible version of every key, so the versions written after
+     * the snapshot are skipped in {@code O(log n)} instead of being scanned.
+     */
+    private static final class VersionIterator implements Iterator<Map.Entry<ByteBuffer, ByteBuffer>> {
+        private final ConcurrentSkipListMap<Version, ByteBuffer> versions;
+        private final long sequence;
+
+        private ByteBuffer key;
+        private Map.Entry<ByteBuffer, ByteBuffer> next;
+
+        VersionIterator(
+                @NotNull final ConcurrentSkipListMap<Version, ByteBuffer> versions,
+                @NotNull final ByteBuffer from,
+                final long sequence) {
+            this.versions = versions;
+            this.sequence = sequence;
+            final Version first = versions.ceilingKey(new Version(from, Long.MAX_VALUE));
+            this.key = first == null ? null : first.key;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<ByteBuffer, ByteBuffer> next() {
+            if (next == null) {
+                throw new NoSuchElementException("Next on exhausted iterator");
+            }
+            final Map.Entry<ByteBuffer, ByteBuffer> result = next;
+            advance();
+            return result;
+        }
+
+        private void advance() {
+            next = null;
+            while (key != null) {
+                final Map.Entry<Version, ByteBuffer> entry = versions.ceilingEntry(new Version(key, sequence));
+                // The next key starts right after the oldest possible version of the current one
+                final Version following = versions.higherKey(new Version(key, Long.MIN_VALUE));
+                final ByteBuffer current = key;
+                key = following == null ? null : following.key;
+                if (entry != null && entry.getKey().key.equals(current)) {
+                    next = new AbstractMap.SimpleImmutableEntry<>(current, entry.getValue());
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks {@link ConcurrentSkipListMap#descendingMap()} seeking the newest visible version
+     * of every key, the versions of a key go from the oldest one in the descending order.
+     */
+    private static final class DescendingVersionIterator implements Iterator<Map.Entry<ByteBuffer, ByteBuffer>> {
+        private final ConcurrentSkipListMap<Version, ByteBuffer> versions;
+        private final ConcurrentNavigableMap<Version, ByteBuffer> descending;
+        private final ByteBuffer from;
+        private final long sequence;
+
+        private ByteBuffer key;
+        private Map.Entry<ByteBuffer, ByteBuffer> next;
+
+        DescendingVersionIterator(
+                @NotNull final ConcurrentSkipListMap<Version, ByteBuffer> versions,
+                @NotNull final ByteBuffer from,
+                @Nullable final ByteBuffer to,
+                final long sequence) {
+            this.versions = versions;
+            this.descending = versions.descendingMap();
+            this.from = from;
+            this.sequence = sequence;
+            // The first version of "to" precedes all the others, so the greatest key before it comes next
+            final Version first = to == null
+                    ? firstKey(descending)
+                    : descending.higherKey(new Version(to, Long.MAX_VALUE));
+            this.key = first == null ? null : first.key;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<ByteBuffer, ByteBuffer> next() {
+            if (next == null) {
+                throw new NoSuchElementException("Next on exhausted iterator");
+            }
+            final Map.Entry<ByteBuffer, ByteBuffer> result = next;
+            advance();
+            return result;
+        }
+
+        private void advance() {
+            next = null;
+            while (key != null && key.compareTo(from) >= 0) {
+                final Map.Entry<Version, ByteBuffer> entry = versions.ceilingEntry(new Version(key, sequence));
+                // The preceding key ends right before the newest possible version of the current one
+                final Version preceding = descending.higherKey(new Version(key, Long.MAX_VALUE));
+                final ByteBuffer current = key;
+                key = preceding == null ? null : preceding.key;
+                if (entry != null && entry.getKey().key.equals(current)) {
+                    next = new AbstractMap.SimpleImmutableEntry<>(current, entry.getValue());
+                    return;
+                }
+            }
+            key = null;
+        }
+
+        @Nullable
+        private static Version firstKey(@NotNull final ConcurrentNavigableMap<Version, ByteBuffer> map) {
+            final Map.Entry<Version, ByteBuffer> first = map.firstEntry();
+            return first == null ? null : first.getKey();
+        }
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import com.google.common.collect.Iterators;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.Record;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The active {@link MemTable} taking the writes and the immutable ones being flushed.
+ * <p>
+ * When the active table fills up it is atomically swapped for a fresh one and the frozen
+ * table is handed to the {@link Flusher} on a background thread while still serving reads,
+ * so the writers don't wait for the disk. They are stalled only if the flushes lag behind
+ * by more than {@code maxImmutable} tables.
+ * <p>
+ * All the memtables share the {@link SnapshotTracker}, so a snapshot reads them all
+ * as of the same point in time, see {@link #get(ByteBuffer, SnapshotTracker.Snapshot)}.
+ * Every flush emits a {@link FlushEvent} and is accounted in the {@link StorageMetrics}.
+ *
+ * @author IgorLo
+ */
+public final class MemTables implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(MemTables.class);
+
+    private final int capacity;
+    private final int maxImmutable;
+    private final Flusher flusher;
+    private final SnapshotTracker tracker;
+    private final StorageMetrics metrics;
+    private final ExecutorService executor =
+            Executors.newSingleThreadExecutor(r -> {
+                final Thread thread = new Thread(r, "memtable-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private volatile State state;
+    private volatile IOException failure;
+
+    /**
+     * @param capacity     arena size of a memtable in bytes
+     * @param maxImmutable the number of memtables being flushed to stall the writers at
+     * @param flusher      writes a frozen memtable to disk
+     */
+    public MemTables(
+            final int capacity,
+            final int maxImmutable,
+            @NotNull final Flusher flusher) {
+        this(capacity, maxImmutable, flusher, new SnapshotTracker(0L));
+    }
+
+    /**
+     * @param capacity     arena size of a memtable in bytes
+     * @param maxImmutable the number of memtables being flushed to stall the writers at
+     * @param flusher      writes a frozen memtable to disk
+     * @param tracker      allocates the sequence numbers of the writes
+     */
+    public MemTables(
+            final int capacity,
+            final int maxImmutable,
+            @NotNull final Flusher flusher,
+            @NotNull final SnapshotTracker tracker) {
+        this(capacity, maxImmutable, flusher, tracker, new StorageMetrics());
+    }
+
+    /**
+     * @param capacity     arena size of a memtable in bytes
+     * @param maxImmutable the number of memtables being flushed to stall the writers at
+     * @param flusher      writes a frozen memtable to disk
+     * @param tracker      allocates the sequence numbers of the writes
+     * @param metrics      accounts the flushes, e.g. the ones of the storage
+     */
+    public MemTables(
+            final int capacity,
+            final int maxImmutable,
+            @NotNull final Flusher flusher,
+            @NotNull final SnapshotTracker tracker,
+            @NotNull final StorageMetrics metrics) {
+        if (capacity <= 0 || maxImmutable <= 0) {
+            throw new IllegalArgumentException("Non-positive memtable limits");
+        }
+        this.capacity = capacity;
+        this.maxImmutable = maxImmutable;
+        this.flusher = flusher;
+        this.tracker = tracker;
+        this.metrics = metrics;
+        this.state = new State(new MemTable(capacity, tracker), Collections.emptyList());
+    }
+
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        while (true) {
+            final MemTable active = state.active;
+            if (active.upsert(key, value)) {
+                return;
+            }
+            swap(active, MemTable.required(key, value));
+        }
+    }
+
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        while (true) {
+            final MemTable active = state.active;
+            if (active.remove(key)) {
+                return;
+            }
+            swap(active, MemTable.required(key, null));
+        }
+    }
+
+    /**
+     * Applies the batch atomically, see {@link MemTable#write(WriteBatch)}.
+     */
+    public void write(@NotNull final WriteBatch batch) throws IOException {
+        if (batch.bytes() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Batch too large: " + batch.bytes() + " bytes");
+        }
+        while (true) {
+            final MemTable active = state.active;
+            if (active.write(batch)) {
+                return;
+            }
+            swap(active, (int) batch.bytes());
+        }
+    }
+
+    /**
+     * Obtains the latest value of the key.
+     *
+     * @return {@code null} if the key is absent or a {@link MemTable#isTombstone(ByteBuffer) tombstone}
+     */
+    @Nullable
+    public ByteBuffer get(@NotNull final ByteBuffer key) {
+        for (final MemTable table : tables()) {
+            final ByteBuffer value = table.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Obtains the value of the key as of the snapshot.
+     *
+     * @return {@code null} if the key is absent or a {@link MemTable#isTombstone(ByteBuffer) tombstone}
+     */
+    @Nullable
+    public ByteBuffer get(
+            @NotNull final ByteBuffer key,
+            @NotNull final SnapshotTracker.Snapshot snapshot) {
+        for (final MemTable table : tables()) {
+            final ByteBuffer value = table.get(key, snapshot);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drops the versions shadowed for all the live snapshots in the readable memtables.
+     *
+     * @return the number of versions dropped
+     */
+    public int trim() {
+        int dropped = 0;
+        for (final MemTable table : tables()) {
+            dropped += table.trim();
+        }
+        return dropped;
+    }
+
+    /**
+     * Provides the latest live {@link Record}s starting at "from" key (inclusive) until "to" key (exclusive)
+     * in descending order merging {@link MemTable#descendingEntries(ByteBuffer, ByteBuffer)}
+     * of the readable memtables, so it seeks backward from "to" holding a single entry per memtable.
+     *
+     * @param to {@code null} to start with the greatest key
+     */
+    @NotNull
+    public Iterator<Record> descendingRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        final List<MemTable> tables = tables();
+        final List<Iterator<Map.Entry<ByteBuffer, ByteBuffer>>> entries = new ArrayList<>(tables.size());
+        for (final MemTable table : tables) {
+            entries.add(table.descendingEntries(from, to));
+        }
+        final Iterator<Map.Entry<ByteBuffer, ByteBuffer>> merged =
+                Iters.merge(entries, Map.Entry.<ByteBuffer, ByteBuffer>comparingByKey().reversed());
+        return Iterators.transform(
+                Iterators.filter(merged, e -> !MemTable.isTombstone(e.getValue())),
+                e -> Record.of(e.getKey(), e.getValue()));
+    }
+
+    /**
+     * Obtains the readable memtables, the newest goes first.
+     */
+    @NotNull
+    public List<MemTable> tables() {
+        final State current = state;
+        final List<MemTable> result = new ArrayList<>(current.immutable.size() + 1);
+        result.add(current.active);
+        result.addAll(current.immutable);
+        return result;
+    }
+
+    /**
+     * Swaps the active memtable for flushing unless it is empty.
+     */
+    public void flush() throws IOException {
+        final MemTable active = state.active;
+        if (!active.isEmpty()) {
+            swap(active, 0);
+        }
+    }
+
+    /**
+     * Flushes all the memtables and waits for the flushes to complete.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                throw new IOException("Flush timed out");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing");
+        }
+        final IOException failed = failure;
+        if (failed != null) {
+            throw failed;
+        }
+    }
+
+    private synchronized void swap(
+            @NotNull final MemTable full,
+            final int required) throws IOException {
+        while (true) {
+            if (state.active != full) {
+                // Already swapped by another writer
+                return;
+            }
+            checkFailure();
+            if (state.immutable.size() < maxImmutable) {
+                break;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for flush");
+            }
+        }
+
+        full.freeze();
+        if (full.isEmpty()) {
+            // The first record didn't fit the regular arena, nothing to flush unless a write is in progress
+            full.awaitWriters();
+            if (full.isEmpty()) {
+                state = new State(new MemTable(Math.max(capacity, required), tracker), state.immutable);
+                return;
+            }
+        }
+        final List<MemTable> immutable = new ArrayList<>(state.immutable.size() + 1);
+        immutable.add(full);
+        immutable.addAll(state.immutable);
+        // A record not fitting the regular arena gets a dedicated one
+        state = new State(new MemTable(Math.max(capacity, required), tracker), immutable);
+        executor.execute(() -> flush(full));
+    }
+
+    private void flush(@NotNull final MemTable table) {
+        table.awaitWriters();
+        final FlushEvent event = new FlushEvent();
+        event.begin();
+        final long start = System.nanoTime();
+        try {
+            event.table = flusher.flush(table);
+        } catch (IOException e) {
+            log.error("Can't flush memtable", e);
+            // Keep serving the table from memory and stop taking writes
+            failure = e;
+            synchronized (this) {
+                notifyAll();
+            }
+            return;
+        }
+        metrics.flushed(System.nanoTime() - start, table.bytes());
+        event.records = table.count();
+        event.bytes = table.bytes();
+        event.commit();
+        synchronized (this) {
+            final List<MemTable> immutable = new ArrayList<>(state.immutable);
+            immutable.remove(table);
+            state = new State(state.active, immutable);
+            notifyAll();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        final IOException failed = failure;
+        if (failed != null) {
+            throw new IOException("Memtable flush failed", failed);
+        }
+    }
+
+    /**
+     * Writes a frozen memtable to an on-disk table and registers it,
+     * the table must be readable by the storage once the method returns.
+     */
+    @FunctionalInterface
+    public interface Flusher {
+        /**
+         * @return the name of the written table, e.g. its file
+         */
+        @NotNull
+        String flush(@NotNull MemTable table) throws IOException;
+    }
+
+    private static final class State {
+        private final MemTable active;
+        // Newest first
+        private final List<MemTable> immutable;
+
+        State(
+                @NotNull final MemTable active,
+                @NotNull final List<MemTable> immutable) {
+            this.active = active;
+            this.immutable = immutable;
+        }
+    }
+}
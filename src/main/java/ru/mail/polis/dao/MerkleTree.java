@@ -0,0 +1,331 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Predicate;
+
+/**
+ * Merkle tree over the key ranges of a {@link DAO} with the leaf hashes cached between the comparisons.
+ * <p>
+ * The key space is cut into {@code 2^depth} contiguous ranges by the leading bits of the keys,
+ * so every leaf is the hash of the records of {@code dao.range(from, to)} and a differing leaf
+ * is repaired by a bounded scan of its range (see {@link Range}). A write just marks its leaf dirty
+ * with {@link #invalidate(ByteBuffer)} without reading anything, and {@link #snapshot()} rescans only
+ * the dirty leaves, so comparing two replicas doesn't rescan the whole store.
+ * <p>
+ * The tree covers only the keys in its scope, e.g. the ones both replicas are responsible for,
+ * so the replicas with different ring ownership compare equal once their shared records match.
+ *
+ * @author IgorLo
+ */
+public final class MerkleTree {
+    public static final int DEFAULT_DEPTH = 12;
+    // The leading bits are taken from the first bytes of a key
+    public static final int MAX_DEPTH = 24;
+
+    private static final int PREFIX_BYTES = 3;
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final DAO dao;
+    private final int depth;
+    private final Predicate<ByteBuffer> scope;
+    private final long[] leaves;
+    // A bit per leaf to rehash, set by the writers and cleared under the tree lock
+    private final AtomicLongArray dirty;
+
+    /**
+     * Creates the tree of all the records, see {@link #MerkleTree(DAO, int, Predicate)}.
+     */
+    public MerkleTree(@NotNull final DAO dao) {
+        this(dao, DEFAULT_DEPTH, key -> true);
+    }
+
+    /**
+     * Creates the tree with all the leaves dirty, so the first {@link #snapshot()} hashes the whole scope.
+     *
+     * @param depth the tree has {@code 2^depth} leaves, e.g. a few hundred records per leaf
+     *              keep both the exchanged trees and the repaired ranges small
+     * @param scope the keys to cover, must be the same on the compared replicas
+     */
+    public MerkleTree(
+            @NotNull final DAO dao,
+            final int depth,
+            @NotNull final Predicate<ByteBuffer> scope) {
+        if (depth <= 0 || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Depth out of range: " + depth);
+        }
+        this.dao = dao;
+        this.depth = depth;
+        this.scope = scope;
+        this.leaves = new long[1 << depth];
+        this.dirty = new AtomicLongArray(Math.max(1, leaves.length / Long.SIZE));
+        for (int i = 0; i < leaves.length; i++) {
+            markDirty(i);
+        }
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Accounts a write of the key, must be called after every upsert and remove.
+     */
+    public void invalidate(@NotNull final ByteBuffer key) {
+        if (scope.test(key)) {
+            markDirty(leafOf(key, depth));
+        }
+    }
+
+    /**
+     * Rehashes the dirty leaves scanning their ranges and captures the tree for comparison with another replica.
+     */
+    @NotNull
+    public synchronized Snapshot snapshot() throws IOException {
+        for (int word = 0; word < dirty.length(); word++) {
+            // The writes after the reset mark the leaves again
+            long bits = dirty.getAndSet(word, 0L);
+            while (bits != 0L) {
+                final int leaf = word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                leaves[leaf] = hash(leaf);
+            }
+        }
+        return new Snapshot(depth, leaves.clone());
+    }
+
+    private void markDirty(final int leaf) {
+        final long bit = 1L << leaf;
+        dirty.accumulateAndGet(leaf / Long.SIZE, bit, (word, mask) -> word | mask);
+    }
+
+    private long hash(final int leaf) throws IOException {
+        final Hasher hasher = HASH.newHasher();
+        boolean empty = true;
+        final Iterator<Record> records = dao.range(lowerBound(leaf, depth), upperBound(leaf, depth));
+        while (records.hasNext()) {
+            final Record record = records.next();
+            final ByteBuffer key = record.getKey();
+            if (!scope.test(key)) {
+                continue;
+            }
+            final ByteBuffer value = record.getValue();
+            hasher.putInt(key.remaining()).putBytes(key)
+                    .putInt(value.remaining()).putBytes(value);
+            empty = false;
+        }
+        return empty ? 0L : hasher.hash().asLong();
+    }
+
+    /**
+     * The leaf of the key by the leading bits of its first bytes taken in the {@link ByteBuffer} order,
+     * i.e. signed, and a missing byte goes before any byte.
+     */
+    static int leafOf(
+            @NotNull final ByteBuffer key,
+            final int depth) {
+        int prefix = 0;
+        for (int i = 0; i < PREFIX_BYTES; i++) {
+            prefix <<= Byte.SIZE;
+            if (i < key.remaining()) {
+                prefix |= (key.get(key.position() + i) ^ Byte.MIN_VALUE) & 0xFF;
+            }
+        }
+        return prefix >>> (PREFIX_BYTES * Byte.SIZE - depth);
+    }
+
+    /**
+     * The least key of the leaf, the trailing bytes which go first are trimmed.
+     */
+    @NotNull
+    static ByteBuffer lowerBound(
+            final int leaf,
+            final int depth) {
+        final int prefix = leaf << (PREFIX_BYTES * Byte.SIZE - depth);
+        final byte[] bytes = new byte[PREFIX_BYTES];
+        int length = 0;
+        for (int i = 0; i < PREFIX_BYTES; i++) {
+            final int unsigned = (prefix >>> ((PREFIX_BYTES - 1 - i) * Byte.SIZE)) & 0xFF;
+            bytes[i] = (byte) (unsigned ^ Byte.MIN_VALUE);
+            if (unsigned != 0) {
+                length = i + 1;
+            }
+        }
+        return ByteBuffer.wrap(bytes, 0, length).slice();
+    }
+
+    /**
+     * The least key of the next leaf or {@code null} for the last one.
+     */
+    @Nullable
+    static ByteBuffer upperBound(
+            final int leaf,
+            final int depth) {
+        return leaf == (1 << depth) - 1 ? null : lowerBound(leaf + 1, depth);
+    }
+
+    private static long combine(
+            final long left,
+            final long right) {
+        return HASH.newHasher().putLong(left).putLong(right).hash().asLong();
+    }
+
+    /**
+     * Immutable Merkle tree to be exchanged between replicas.
+     */
+    public static final class Snapshot {
+        private final int depth;
+        private final int leaves;
+        // Implicit binary heap: children of i are 2i + 1 and 2i + 2, leaves go last
+        private final long[] nodes;
+
+        Snapshot(
+                final int depth,
+                @NotNull final long[] leaves) {
+            this.depth = depth;
+            this.leaves = leaves.length;
+            this.nodes = new long[2 * this.leaves - 1];
+            System.arraycopy(leaves, 0, nodes, this.leaves - 1, this.leaves);
+            for (int i = this.leaves - 2; i >= 0; i--) {
+                nodes[i] = combine(nodes[2 * i + 1], nodes[2 * i + 2]);
+            }
+        }
+
+        public long root() {
+            return nodes[0];
+        }
+
+        /**
+         * Serializes the depth and the leaf hashes, the inner nodes are recomputed by {@link #fromBytes(byte[])}.
+         */
+        @NotNull
+        public byte[] toBytes() {
+            final ByteBuffer result = ByteBuffer.allocate(Integer.BYTES + leaves * Long.BYTES);
+            result.putInt(depth);
+            for (int i = leaves - 1; i < nodes.length; i++) {
+                result.putLong(nodes[i]);
+            }
+            return result.array();
+        }
+
+        @NotNull
+        public static Snapshot fromBytes(@NotNull final byte[] bytes) {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            final int depth = bytes.length < Integer.BYTES ? -1 : buffer.getInt();
+            if (depth <= 0 || depth > MAX_DEPTH || buffer.remaining() != ((long) Long.BYTES << depth)) {
+                throw new IllegalArgumentException("Malformed Merkle tree of " + bytes.length + " bytes");
+            }
+            final long[] leaves = new long[1 << depth];
+            buffer.asLongBuffer().get(leaves);
+            return new Snapshot(depth, leaves);
+        }
+
+        /**
+         * Descends only into differing subtrees.
+         *
+         * @return the differing key ranges in ascending order, adjacent leaves are merged
+         * @throws IllegalArgumentException if the trees are of different depth
+         */
+        @NotNull
+        public List<Range> diff(@NotNull final Snapshot other) {
+            if (depth != other.depth) {
+                throw new IllegalArgumentException("Depth " + depth + " vs " + other.depth);
+            }
+            final List<Range> result = new ArrayList<>();
+            diff(other, 0, result);
+            return result;
+        }
+
+        private void diff(
+                @NotNull final Snapshot other,
+                final int node,
+                @NotNull final List<Range> result) {
+            if (nodes[node] == other.nodes[node]) {
+                return;
+            }
+
+            if (node < leaves - 1) {
+                diff(other, 2 * node + 1, result);
+                diff(other, 2 * node + 2, result);
+                return;
+            }
+
+            final int leaf = node - (leaves - 1);
+            final int last = result.size() - 1;
+            if (last >= 0 && result.get(last).lastLeaf == leaf - 1) {
+                result.set(last, new Range(depth, result.get(last).firstLeaf, leaf));
+            } else {
+                result.add(new Range(depth, leaf, leaf));
+            }
+        }
+    }
+
+    /**
+     * One or more adjacent leaves, i.e. the keys from {@link #getFrom()} (inclusive)
+     * until {@link #getTo()} (exclusive) to be scanned with {@link DAO#range(ByteBuffer, ByteBuffer)}.
+     */
+    public static final class Range {
+        private final int depth;
+        private final int firstLeaf;
+        private final int lastLeaf;
+
+        Range(
+                final int depth,
+                final int firstLeaf,
+                final int lastLeaf) {
+            this.depth = depth;
+            this.firstLeaf = firstLeaf;
+            this.lastLeaf = lastLeaf;
+        }
+
+        @NotNull
+        public ByteBuffer getFrom() {
+            return lowerBound(firstLeaf, depth);
+        }
+
+        /**
+         * @return {@code null} if the range ends with the key space
+         */
+        @Nullable
+        public ByteBuffer getTo() {
+            return upperBound(lastLeaf, depth);
+        }
+
+        public boolean contains(@NotNull final ByteBuffer key) {
+            final int leaf = leafOf(key, depth);
+            return firstLeaf <= leaf && leaf <= lastLeaf;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + firstLeaf + "; " + lastLeaf + "]";
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Estimates the number of keys and bytes in a key range of a table from its index samples.
+ * <p>
+ * Every {@code interval}-th key of the table is sampled along with the bytes preceding it,
+ * so the rank of any key is known within half an interval from a binary search
+ * over the samples and a range estimate is off by at most an interval
+ * (see {@link Estimate#getKeysError()}) without reading any data.
+ *
+ * @author IgorLo
+ */
+public final class RangeEstimator {
+    private final int interval;
+    private final List<ByteBuffer> keys;
+    private final long[] bytesBefore;
+    private final long count;
+    private final long bytes;
+    private final long maxIntervalBytes;
+
+    private RangeEstimator(
+            final int interval,
+            @NotNull final List<ByteBuffer> keys,
+            @NotNull final long[] bytesBefore,
+            final long count,
+            final long bytes,
+            final long maxIntervalBytes) {
+        this.interval = interval;
+        this.keys = keys;
+        this.bytesBefore = bytesBefore;
+        this.count = count;
+        this.bytes = bytes;
+        this.maxIntervalBytes = maxIntervalBytes;
+    }
+
+    /**
+     * Estimates the keys starting at "from" key (inclusive) until "to" key (exclusive).
+     *
+     * @param to {@code null} for the end of the table
+     */
+    @NotNull
+    public Estimate estimate(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        if (count == 0 || (to != null && from.compareTo(to) >= 0)) {
+            return Estimate.EMPTY;
+        }
+        final int fromSamples = samplesBefore(from);
+        final int toSamples = to == null ? -1 : samplesBefore(to);
+        final long keysEstimate = (to == null ? count : rank(toSamples)) - rank(fromSamples);
+        final long bytesEstimate = (to == null ? bytes : bytesRank(toSamples)) - bytesRank(fromSamples);
+        // Exact at the table ends, within half an interval at each bound otherwise
+        final int inexactBounds = (isExact(fromSamples) ? 0 : 1) + (to == null || isExact(toSamples) ? 0 : 1);
+        final long keysError = inexactBounds * (long) (interval / 2);
+        final long bytesError = inexactBounds * ((maxIntervalBytes + 1) / 2);
+        return new Estimate(Math.max(0L, keysEstimate), Math.max(0L, bytesEstimate), keysError, bytesError);
+    }
+
+    private boolean isExact(final int samples) {
+        return samples == 0;
+    }
+
+    /**
+     * The number of the samples less than the key.
+     */
+    private int samplesBefore(@NotNull final ByteBuffer key) {
+        final int index = Collections.binarySearch(keys, key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private long rank(final int samples) {
+        if (samples == 0) {
+            return 0L;
+        }
+        // The key is after the sample "samples - 1" and not after the next one
+        return Math.min(count, (samples - 1L) * interval + (interval + 1) / 2);
+    }
+
+    private long bytesRank(final int samples) {
+        if (samples == 0) {
+            return 0L;
+        }
+        final long low = bytesBefore[samples - 1];
+        final long high = samples < bytesBefore.length ? bytesBefore[samples] : bytes;
+        return low + (high - low) / 2;
+    }
+
+    /**
+     * Collects the samples while a table is written.
+     */
+    public static final class Builder {
+        private final int interval;
+        private final List<ByteBuffer> keys = new ArrayList<>();
+        private final List<Long> bytesBefore = new ArrayList<>();
+        private long count;
+        private long bytes;
+        private long intervalStart;
+        private long maxIntervalBytes;
+
+        /**
+         * @param interval the number of keys per sample
+         */
+        public Builder(final int interval) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("Non-positive interval: " + interval);
+            }
+            this.interval = interval;
+        }
+
+        /**
+         * Accounts the next record, the keys must go in ascending order.
+         *
+         * @param size the number of bytes the record takes
+         */
+        @NotNull
+        public Builder add(
+                @NotNull final ByteBuffer key,
+                final long size) {
+            if (count % interval == 0) {
+                maxIntervalBytes = Math.max(maxIntervalBytes, bytes - intervalStart);
+                intervalStart = bytes;
+                final ByteBuffer copy = ByteBuffer.allocate(key.remaining());
+                copy.put(key.duplicate());
+                copy.rewind();
+                keys.add(copy);
+                bytesBefore.add(bytes);
+            }
+            count++;
+            bytes += size;
+            return this;
+        }
+
+        @NotNull
+        public RangeEstimator build() {
+            final long[] before = new long[bytesBefore.size()];
+            for (int i = 0; i < before.length; i++) {
+                before[i] = bytesBefore.get(i);
+            }
+            return new RangeEstimator(
+                    interval,
+                    new ArrayList<>(keys),
+                    before,
+                    count,
+                    bytes,
+                    Math.max(maxIntervalBytes, bytes - intervalStart));
+        }
+    }
+
+    /**
+     * Estimated number of keys and bytes with the error bounds.
+     * <p>
+     * Estimates of the tables are summed up with {@link #plus(Estimate)}, so the keys
+     * overwritten or removed in the newer tables are counted more than once.
+     */
+    public static final class Estimate {
+        public static final Estimate EMPTY = new Estimate(0L, 0L, 0L, 0L);
+
+        private final long keys;
+        private final long bytes;
+        private final long keysError;
+        private final long bytesError;
+
+        public Estimate(
+                final long keys,
+                final long bytes,
+                final long keysError,
+                final long bytesError) {
+            this.keys = keys;
+            this.bytes = bytes;
+            this.keysError = keysError;
+            this.bytesError = bytesError;
+        }
+
+        public long getKeys() {
+            return keys;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * The maximal absolute difference between {@link #getKeys()} and the exact count.
+         */
+        public long getKeysError() {
+            return keysError;
+        }
+
+        /**
+         * The maximal absolute difference between {@link #getBytes()} and the exact size.
+         */
+        public long getBytesError() {
+            return bytesError;
+        }
+
+        @NotNull
+        public Estimate plus(@NotNull final Estimate other) {
+            return new Estimate(
+                    keys + other.keys,
+                    bytes + other.bytes,
+                    keysError + other.keysError,
+                    bytesError + other.bytesError);
+        }
+
+        @Override
+        public String toString() {
+            return keys + "+-" + keysError + " keys, " + bytes + "+-" + bytesError + " bytes";
+        }
+    }
+}
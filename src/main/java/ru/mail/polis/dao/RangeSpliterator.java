@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * {@link Spliterator} over a key range of a {@link DAO} splitting at the given keys,
+ * so a parallel stream scans the balanced sub-ranges on the fork/join pool.
+ * <p>
+ * Every sub-range is read with its own {@link DAO#range(ByteBuffer, ByteBuffer)} opened lazily
+ * on the first traversal. {@link IOException}s are rethrown as {@link UncheckedIOException}.
+ *
+ * @author IgorLo
+ */
+final class RangeSpliterator implements Spliterator<Record> {
+    private static final int CHARACTERISTICS = ORDERED | SORTED | DISTINCT | NONNULL;
+
+    private final DAO dao;
+    private final ByteBuffer to;
+    private ByteBuffer from;
+    private List<ByteBuffer> splits;
+    private Iterator<Record> records;
+
+    /**
+     * @param splits ascending keys strictly inside the range to split at
+     */
+    RangeSpliterator(
+            @NotNull final DAO dao,
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            @NotNull final List<ByteBuffer> splits) {
+        this.dao = dao;
+        this.from = from;
+        this.to = to;
+        this.splits = splits;
+    }
+
+    @Override
+    public boolean tryAdvance(@NotNull final Consumer<? super Record> action) {
+        final Iterator<Record> iter = records();
+        if (!iter.hasNext()) {
+            return false;
+        }
+        action.accept(iter.next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(@NotNull final Consumer<? super Record> action) {
+        records().forEachRemaining(action);
+    }
+
+    @Nullable
+    @Override
+    public Spliterator<Record> trySplit() {
+        if (records != null || splits.isEmpty()) {
+            return null;
+        }
+        // Hand the first half over and keep the rest
+        final int middle = splits.size() / 2;
+        final ByteBuffer split = splits.get(middle);
+        final Spliterator<Record> prefix =
+                new RangeSpliterator(dao, from, split, new ArrayList<>(splits.subList(0, middle)));
+        from = split;
+        splits = new ArrayList<>(splits.subList(middle + 1, splits.size()));
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        // Unknown, so the fork/join framework splits while possible
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+
+    @Nullable
+    @Override
+    public Comparator<? super Record> getComparator() {
+        // Natural order
+        return null;
+    }
+
+    @NotNull
+    private Iterator<Record> records() {
+        if (records == null) {
+            try {
+                records = dao.range(from, to);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't scan range", e);
+            }
+        }
+        return records;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * Range tombstones of a storage, see {@link DAO#removeRange(ByteBuffer, ByteBuffer)}.
+ * <p>
+ * A tombstone removes the keys in {@code [from; to)} written before it, i.e. stored
+ * in the tables of lower generations, so the later writes into the range stay visible.
+ * The tombstones are kept as non-overlapping fragments each carrying the highest
+ * generation of the tombstones covering it, so a lookup is a single floor search
+ * and a scan skips the covered keys with a moving pointer into the fragments.
+ * The fragments are copied on write since range deletions are rare.
+ *
+ * @author IgorLo
+ */
+public final class RangeTombstones {
+    /**
+     * Upper bound of the fragment reaching the end of the key space.
+     */
+    private static final ByteBuffer INFINITY = ByteBuffer.allocate(0);
+
+    private volatile NavigableMap<ByteBuffer, Fragment> fragments = new TreeMap<>();
+
+    /**
+     * Removes {@code [from; to)} in the given generation.
+     *
+     * @param to {@code null} for the end of the key space
+     */
+    public synchronized void add(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final long generation) {
+        if (to != null && from.compareTo(to) >= 0) {
+            return;
+        }
+        final ByteBuffer start = copy(from);
+        final ByteBuffer end = to == null ? INFINITY : copy(to);
+        final TreeMap<ByteBuffer, Fragment> result = new TreeMap<>(fragments);
+        final TreeMap<ByteBuffer, ByteBuffer> overlaps = new TreeMap<>();
+        for (final Map.Entry<ByteBuffer, Fragment> entry : fragments.entrySet()) {
+            final ByteBuffer fragmentStart = entry.getKey();
+            final Fragment fragment = entry.getValue();
+            if (!before(fragmentStart, end) || !before(start, fragment.end)) {
+                continue;
+            }
+            // Keep the parts sticking out and the higher generation in the overlap
+            result.remove(fragmentStart);
+            if (fragmentStart.compareTo(start) < 0) {
+                result.put(fragmentStart, new Fragment(start, fragment.generation));
+            }
+            // Nothing sticks out past the end of the key space
+            if (end != INFINITY && before(end, fragment.end)) {
+                result.put(end, new Fragment(fragment.end, fragment.generation));
+            }
+            final ByteBuffer overlapStart = fragmentStart.compareTo(start) < 0 ? start : fragmentStart;
+            final ByteBuffer overlapEnd = before(fragment.end, end) ? fragment.end : end;
+            result.put(overlapStart, new Fragment(overlapEnd, Math.max(generation, fragment.generation)));
+            overlaps.put(overlapStart, overlapEnd);
+        }
+
+        // Fill the gaps between the overlaps
+        ByteBuffer gap = start;
+        for (final Map.Entry<ByteBuffer, ByteBuffer> overlap : overlaps.entrySet()) {
+            if (gap.compareTo(overlap.getKey()) < 0) {
+                result.put(gap, new Fragment(overlap.getKey(), generation));
+            }
+            gap = overlap.getValue();
+        }
+        if (gap != INFINITY && before(gap, end)) {
+            result.put(gap, new Fragment(end, generation));
+        }
+        fragments = result;
+    }
+
+    public boolean isEmpty() {
+        return fragments.isEmpty();
+    }
+
+    /**
+     * Obtains the highest generation of the tombstones covering the key.
+     *
+     * @return {@code -1} if not covered
+     */
+    public long generation(@NotNull final ByteBuffer key) {
+        final Map.Entry<ByteBuffer, Fragment> floor = fragments.floorEntry(key);
+        if (floor == null || !before(key, floor.getValue().end)) {
+            return -1L;
+        }
+        return floor.getValue().generation;
+    }
+
+    /**
+     * Checks whether the key of the given generation is removed.
+     */
+    public boolean hides(
+            @NotNull final ByteBuffer key,
+            final long generation) {
+        return generation(key) > generation;
+    }
+
+    /**
+     * Checks whether all the keys in {@code [min; max]} of the given generation are removed,
+     * so compaction may drop e.g. a whole table or block without reading it.
+     */
+    public boolean hides(
+            @NotNull final ByteBuffer min,
+            @NotNull final ByteBuffer max,
+            final long generation) {
+        final Map.Entry<ByteBuffer, Fragment> floor = fragments.floorEntry(min);
+        if (floor == null) {
+            return false;
+        }
+        ByteBuffer covered = min;
+        for (final Map.Entry<ByteBuffer, Fragment> entry : fragments.tailMap(floor.getKey(), true).entrySet()) {
+            if (entry.getKey().compareTo(covered) > 0) {
+                // A gap
+                return false;
+            }
+            final Fragment fragment = entry.getValue();
+            if (!before(covered, fragment.end)) {
+                continue;
+            }
+            if (fragment.generation <= generation) {
+                return false;
+            }
+            if (fragment.end == INFINITY || max.compareTo(fragment.end) < 0) {
+                return true;
+            }
+            covered = fragment.end;
+        }
+        return false;
+    }
+
+    /**
+     * Skips the records of the given generation removed by the tombstones.
+     */
+    @NotNull
+    public Iterator<Record> filter(
+            @NotNull final Iterator<Record> records,
+            final long generation) {
+        final NavigableMap<ByteBuffer, Fragment> current = fragments;
+        if (current.isEmpty()) {
+            return records;
+        }
+        return new FilterIterator(records, current, generation);
+    }
+
+    /**
+     * Serializes the fragments to be stored along with a table.
+     */
+    @NotNull
+    public ByteBuffer toBytes() {
+        final NavigableMap<ByteBuffer, Fragment> current = fragments;
+        int size = Integer.BYTES;
+        for (final Map.Entry<ByteBuffer, Fragment> entry : current.entrySet()) {
+            size += 3 * Integer.BYTES + entry.getKey().remaining() + entry.getValue().end.remaining() + Long.BYTES;
+        }
+        final ByteBuffer result = ByteBuffer.allocate(size);
+        result.putInt(current.size());
+        for (final Map.Entry<ByteBuffer, Fragment> entry : current.entrySet()) {
+            final Fragment fragment = entry.getValue();
+            result.putInt(entry.getKey().remaining()).put(entry.getKey().duplicate());
+            result.putInt(fragment.end == INFINITY ? -1 : fragment.end.remaining());
+            result.put(fragment.end.duplicate());
+            result.putLong(fragment.generation);
+        }
+        return result.flip();
+    }
+
+    /**
+     * Deserializes the fragments.
+     *
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    @NotNull
+    public static RangeTombstones fromBytes(@NotNull final ByteBuffer bytes) {
+        final ByteBuffer in = bytes.duplicate();
+        final RangeTombstones result = new RangeTombstones();
+        final TreeMap<ByteBuffer, Fragment> fragments = new TreeMap<>();
+        try {
+            final int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                final ByteBuffer start = read(in, in.getInt());
+                final int endLength = in.getInt();
+                final ByteBuffer end = endLength < 0 ? INFINITY : read(in, endLength);
+                fragments.put(start, new Fragment(end, in.getLong()));
+            }
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IllegalArgumentException("Malformed range tombstones", e);
+        }
+        result.fragments = fragments;
+        return result;
+    }
+
+    @NotNull
+    private static ByteBuffer read(
+            @NotNull final ByteBuffer in,
+            final int length) {
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final byte[] bytes = new byte[length];
+        in.get(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Compares a key with an exclusive upper bound.
+     */
+    private static boolean before(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer end) {
+        return end == INFINITY || (key != INFINITY && key.compareTo(end) < 0);
+    }
+
+    @NotNull
+    private static ByteBuffer copy(@NotNull final ByteBuffer buffer) {
+        final ByteBuffer result = ByteBuffer.allocate(buffer.remaining());
+        result.put(buffer.duplicate());
+        result.rewind();
+        return result;
+    }
+
+    private static final class Fragment {
+        private final ByteBuffer end;
+        private final long generation;
+
+        Fragment(
+                @NotNull final ByteBuffer end,
+                final long generation) {
+            this.end = end;
+            this.generation = generation;
+        }
+    }
+
+    private static final class FilterIterator implements Iterator<Record> {
+        private final Iterator<Record> records;
+        private final Iterator<Map.Entry<ByteBuffer, Fragment>> fragments;
+        private final long generation;
+        private Map.Entry<ByteBuffer, Fragment> fragment;
+        private Record next;
+
+        FilterIterator(
+                @NotNull final Iterator<Record> records,
+                @NotNull final NavigableMap<ByteBuffer, Fragment> fragments,
+                final long generation) {
+            this.records = records;
+            this.fragments = fragments.entrySet().iterator();
+            this.generation = generation;
+            this.fragment = this.fragments.hasNext() ? this.fragments.next() : null;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Record next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            final Record result = next;
+            advance();
+            return result;
+        }
+
+        private void advance() {
+            next = null;
+            while (records.hasNext()) {
+                final Record record = records.next();
+                final ByteBuffer key = record.getKey();
+                // Both are sorted, so the fragments behind the key are never needed again
+                while (fragment != null && !before(key, fragment.getValue().end)) {
+                    fragment = fragments.hasNext() ? fragments.next() : null;
+                }
+                if (fragment == null
+                        || key.compareTo(fragment.getKey()) < 0
+                        || fragment.getValue().generation <= generation) {
+                    next = record;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * {@link DAO} serving reads from the delegate and rejecting any modification.
+ *
+ * @author IgorLo
+ */
+final class ReadOnlyDAO implements DAO {
+    private final DAO delegate;
+
+    ReadOnlyDAO(@NotNull final DAO delegate) {
+        this.delegate = delegate;
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+        return delegate.iterator(from);
+    }
+
+    @NotNull
+    @Override
+    public Cursor cursor(@NotNull final ByteBuffer from) throws IOException {
+        return delegate.cursor(from);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> range(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        return delegate.range(from, to);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> descendingRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        return delegate.descendingRange(from, to);
+    }
+
+    @NotNull
+    @Override
+    public List<ByteBuffer> splitPoints(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final int parts) throws IOException {
+        return delegate.splitPoints(from, to, parts);
+    }
+
+    @NotNull
+    @Override
+    public RangeEstimator.Estimate estimate(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        return delegate.estimate(from, to);
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException {
+        return delegate.get(key);
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        throw new UnsupportedOperationException("Read-only storage");
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value,
+            @NotNull final Duration ttl) {
+        throw new UnsupportedOperationException("Read-only storage");
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) {
+        throw new UnsupportedOperationException("Read-only storage");
+    }
+
+    @Override
+    public boolean compareAndSet(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer expected,
+            @Nullable final ByteBuffer update) {
+        throw new UnsupportedOperationException("Read-only storage");
+    }
+
+    @Override
+    public void write(@NotNull final WriteBatch batch) {
+        throw new UnsupportedOperationException("Read-only storage");
+    }
+
+    @Override
+    public void removeRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        throw new UnsupportedOperationException("Read-only storage");
+    }
+
+    @Override
+    public void bulkLoad(@NotNull final Iterator<Record> sorted) {
+        throw new UnsupportedOperationException("Read-only storage");
+    }
+
+    @Override
+    public void snapshot(@NotNull final File destination) throws IOException {
+        delegate.snapshot(destination);
+    }
+
+    @Override
+    public void compact() {
+        throw new UnsupportedOperationException("Read-only storage");
+    }
+
+    @Nullable
+    @Override
+    public StorageMetrics metrics() {
+        return delegate.metrics();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sequence numbers of the writes and the point-in-time read snapshots.
+ * <p>
+ * A writer takes the next sequence number, applies the write and {@link #publish(long) publishes}
+ * the number. The publication is ordered, so a snapshot taken at the last published number sees
+ * every write up to it and none after it while the writers keep going. Compaction asks
+ * {@link #retain(long[])} which versions the live snapshots still need.
+ *
+ * @author IgorLo
+ */
+public final class SnapshotTracker {
+    private static final int MAX_SPINS = 64;
+
+    private final AtomicLong allocated;
+    private final AtomicLong published;
+    // Live snapshot sequence -> the number of the snapshots opened at it
+    private final ConcurrentNavigableMap<Long, Integer> snapshots = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param last the greatest sequence number persisted so far
+     */
+    public SnapshotTracker(final long last) {
+        this.allocated = new AtomicLong(last);
+        this.published = new AtomicLong(last);
+    }
+
+    /**
+     * Allocates the sequence number of a write, to be {@link #publish(long) published} once applied.
+     */
+    public long next() {
+        return allocated.incrementAndGet();
+    }
+
+    /**
+     * Makes the applied write visible to the new snapshots after all the preceding ones.
+     */
+    public void publish(final long sequence) {
+        // The preceding writers are in the middle of the insertion, don't overtake them
+        int spins = 0;
+        while (!published.compareAndSet(sequence - 1, sequence)) {
+            if (++spins < MAX_SPINS) {
+                Thread.onSpinWait();
+            } else {
+                // A preempted predecessor needs the CPU more than the spinning successors
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * The greatest sequence number visible to the new snapshots.
+     */
+    public long published() {
+        return published.get();
+    }
+
+    /**
+     * Opens a snapshot of the published writes, must be closed to let compaction drop the old versions.
+     */
+    @NotNull
+    public Snapshot open() {
+        while (true) {
+            final long sequence = published.get();
+            snapshots.merge(sequence, 1, Integer::sum);
+            // An oldest() missing the registration has read the published number before, i.e. not past it
+            if (published.get() == sequence) {
+                return new Snapshot(sequence);
+            }
+            // A write was published meanwhile, so oldest() may have already passed the sequence
+            release(sequence);
+        }
+    }
+
+    /**
+     * The least sequence number readable by a live snapshot or the published one if there are none.
+     */
+    public long oldest() {
+        // Read before the snapshots, see open()
+        final long last = published.get();
+        final Map.Entry<Long, Integer> first = snapshots.firstEntry();
+        return first == null ? last : Math.min(first.getKey(), last);
+    }
+
+    /**
+     * Decides which versions of a key compaction keeps: the newest one and for every
+     * live snapshot the newest one visible to it.
+     *
+     * @param sequences of the versions of a single key, the newest first
+     * @return whether to keep the version at the same index
+     */
+    @NotNull
+    public boolean[] retain(@NotNull final long[] sequences) {
+        final boolean[] result = new boolean[sequences.length];
+        for (int i = 0; i < sequences.length; i++) {
+            if (i == 0) {
+                result[i] = true;
+                continue;
+            }
+            // Visible to a snapshot taken before the next version
+            final Long snapshot = snapshots.ceilingKey(sequences[i]);
+            result[i] = snapshot != null && snapshot < sequences[i - 1];
+        }
+        return result;
+    }
+
+    private void release(final long sequence) {
+        snapshots.computeIfPresent(sequence, (s, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * Point-in-time view seeing the writes with sequence numbers up to {@link #getSequence()}.
+     */
+    public final class Snapshot implements Closeable {
+        private final long sequence;
+        private boolean closed;
+
+        private Snapshot(final long sequence) {
+            this.sequence = sequence;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                release(sequence);
+            }
+        }
+    }
+}
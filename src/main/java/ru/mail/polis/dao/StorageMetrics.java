@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.NotNull;
+
+import ru.mail.polis.Prometheus;
+
+/**
+ * Storage engine counters updated by a {@link DAO} implementation.
+ *
+ * @author IgorLo
+ */
+public final class StorageMetrics {
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong memTableBytes = new AtomicLong();
+    private final AtomicLong tables = new AtomicLong();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+    private final LongAdder compactions = new LongAdder();
+    private final LongAdder compactionNanos = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    public void memTableBytes(final long bytes) {
+        memTableBytes.set(bytes);
+    }
+
+    public void tables(final long count) {
+        tables.set(count);
+    }
+
+    public void flushed(
+            final long nanos,
+            final long bytes) {
+        flushes.increment();
+        flushNanos.add(nanos);
+        bytesWritten.add(bytes);
+    }
+
+    public void compacted(
+            final long nanos,
+            final long readBytes,
+            final long writtenBytes) {
+        compactions.increment();
+        compactionNanos.add(nanos);
+        bytesRead.add(readBytes);
+        bytesWritten.add(writtenBytes);
+    }
+
+    /**
+     * Accounts for the bytes read from tables serving the requests.
+     */
+    public void read(final long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * Accounts for the bytes written outside of flush and compaction, e.g. to a write-ahead log.
+     */
+    public void written(final long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    public long memTableBytes() {
+        return memTableBytes.get();
+    }
+
+    public long tables() {
+        return tables.get();
+    }
+
+    public long flushes() {
+        return flushes.sum();
+    }
+
+    public long compactions() {
+        return compactions.sum();
+    }
+
+    public long bytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long bytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * Renders the counters in Prometheus text format.
+     */
+    public void writeTo(@NotNull final StringBuilder out) {
+        Prometheus.metric(out, "storage_memtable_bytes", "gauge",
+                "Size of the memtable", memTableBytes.get());
+        Prometheus.metric(out, "storage_tables", "gauge",
+                "Number of the on-disk tables", tables.get());
+        Prometheus.metric(out, "storage_flushes_total", "counter",
+                "Number of memtable flushes", flushes.sum());
+        Prometheus.metric(out, "storage_flush_seconds_total", "counter",
+                "Time spent flushing memtables", flushNanos.sum() / NANOS_PER_SECOND);
+        Prometheus.metric(out, "storage_compactions_total", "counter",
+                "Number of compactions", compactions.sum());
+        Prometheus.metric(out, "storage_compaction_seconds_total", "counter",
+                "Time spent compacting", compactionNanos.sum() / NANOS_PER_SECOND);
+        Prometheus.metric(out, "storage_read_bytes_total", "counter",
+                "Bytes read from disk", bytesRead.sum());
+        Prometheus.metric(out, "storage_written_bytes_total", "counter",
+                "Bytes written to disk", bytesWritten.sum());
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event emitted by a {@link DAO} implementation when an on-disk table is opened.
+ *
+ * @author IgorLo
+ */
+@Name("ru.mail.polis.TableOpen")
+@Label("Table Open")
+@Category({"Highload DHT", "Storage"})
+@Description("On-disk table opened and its index loaded")
+@StackTrace(false)
+public final class TableOpenEvent extends jdk.jfr.Event {
+    @Label("Table")
+    public String table;
+
+    @Label("Records")
+    public long records;
+
+    @Label("Size")
+    @DataAmount
+    public long bytes;
+}
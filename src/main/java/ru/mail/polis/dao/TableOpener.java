@@ -0,0 +1,164 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens the tables of a storage in parallel at startup.
+ * <p>
+ * Verifying footers and loading indexes and filters is dominated by I/O latency,
+ * so the tables registered in the {@link Manifest} are opened concurrently
+ * and a {@link TableOpenEvent} is emitted for each of them.
+ *
+ * @author IgorLo
+ */
+public final class TableOpener {
+    private TableOpener() {
+        // Not instantiatable
+    }
+
+    /**
+     * Opens the tables on {@code parallelism} threads.
+     *
+     * @return the opened tables in the order of the given ones
+     * @throws IOException            if any table can't be opened, the opened ones are closed then
+     * @throws InterruptedIOException if interrupted, the pending tables are skipped, the opened ones
+     *                                are closed and the interrupt flag is restored
+     */
+    @NotNull
+    public static <T extends Closeable> List<T> open(
+            @NotNull final File data,
+            @NotNull final List<Manifest.Table> tables,
+            @NotNull final Opener<T> opener,
+            final int parallelism) throws IOException {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Non-positive parallelism: " + parallelism);
+        }
+
+        final AtomicInteger threads = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(parallelism, tables.size())),
+                r -> {
+                    final Thread thread = new Thread(r, "table-opener-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        try {
+            final List<Future<T>> futures = new ArrayList<>(tables.size());
+            for (final Manifest.Table table : tables) {
+                futures.add(executor.submit(() -> open(data, table, opener, cancelled)));
+            }
+            return collect(futures, cancelled);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @NotNull
+    private static <T extends Closeable> T open(
+            @NotNull final File data,
+            @NotNull final Manifest.Table table,
+            @NotNull final Opener<T> opener,
+            @NotNull final AtomicBoolean cancelled) throws IOException {
+        if (cancelled.get()) {
+            throw new InterruptedIOException("Opening cancelled");
+        }
+        final TableOpenEvent event = new TableOpenEvent();
+        event.begin();
+        final T result = opener.open(table);
+        event.table = table.getFile();
+        event.records = table.getRecords();
+        event.bytes = new File(data, table.getFile()).length();
+        event.commit();
+        return result;
+    }
+
+    @NotNull
+    private static <T extends Closeable> List<T> collect(
+            @NotNull final List<Future<T>> futures,
+            @NotNull final AtomicBoolean cancelled) throws IOException {
+        final List<T> opened = new ArrayList<>(futures.size());
+        Throwable failure = null;
+        boolean interrupted = false;
+        // Wait for every table not to leak the ones opened after a failure or an interrupt
+        for (final Future<T> future : futures) {
+            while (true) {
+                try {
+                    opened.add(future.get());
+                    break;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                } catch (InterruptedException e) {
+                    // The pending tables fail fast, only the ones being opened are waited for
+                    interrupted = true;
+                    cancelled.set(true);
+                }
+            }
+        }
+        if (failure == null && !interrupted) {
+            return opened;
+        }
+
+        final IOException result;
+        if (interrupted) {
+            result = new InterruptedIOException("Interrupted while opening tables");
+        } else if (failure instanceof IOException) {
+            result = (IOException) failure;
+        } else {
+            result = new IOException("Can't open tables", failure);
+        }
+        for (final T table : opened) {
+            try {
+                table.close();
+            } catch (IOException | UncheckedIOException e) {
+                result.addSuppressed(e);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        throw result;
+    }
+
+    /**
+     * Opens a single table, e.g. maps the file and loads its index and filter.
+     */
+    @FunctionalInterface
+    public interface Opener<T extends Closeable> {
+        @NotNull
+        T open(@NotNull Manifest.Table table) throws IOException;
+    }
+}
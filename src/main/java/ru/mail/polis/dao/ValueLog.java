@@ -0,0 +1,428 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only log of the large values separated from the keys.
+ * <p>
+ * Values of at least {@link #threshold()} bytes are appended to the log and the tables
+ * store just the {@link #POINTER_SIZE}-byte pointers, so compaction rewrites the pointers
+ * instead of the values and its cost scales with the key count rather than the data size.
+ * The log is split into segments, a sealed segment is reclaimed by {@link #collect(long, Liveness, Relocation)}
+ * which moves the values still referenced to the head of the log.
+ * <p>
+ * A reader {@link #pin() pins} the log before it obtains a pointer and keeps the pin while it may read
+ * by the pointer, e.g. for the lifetime of an iterator over a {@link SnapshotTracker.Snapshot},
+ * so a collected segment is deleted only once no pin taken before the collection is left.
+ * <p>
+ * Entry format: {@code (keyLength:int, valueLength:int, key, value)},
+ * pointer format: {@code (segment:long, valueOffset:long, valueLength:int)}.
+ *
+ * @author IgorLo
+ */
+public final class ValueLog implements Closeable {
+    public static final int POINTER_SIZE = Long.BYTES + Long.BYTES + Integer.BYTES;
+
+    private static final String PREFIX = "vlog-";
+    private static final String SUFFIX = ".log";
+    private static final Pattern NAME = Pattern.compile(PREFIX + "(\\d+)" + Pattern.quote(SUFFIX));
+    private static final int HEADER = 2 * Integer.BYTES;
+
+    private final Path dir;
+    private final int threshold;
+    private final long segmentBytes;
+    private final Map<Long, FileChannel> segments = new ConcurrentSkipListMap<>();
+    // Collected segments still readable by the older pins
+    private final Map<Long, FileChannel> retired = new ConcurrentSkipListMap<>();
+    // Epoch of retirement by segment
+    private final NavigableMap<Long, Long> retiredAt = new TreeMap<>();
+    // Pin counts by epoch
+    private final NavigableMap<Long, Integer> pins = new TreeMap<>();
+
+    private long epoch;
+    private long active;
+    private FileChannel head;
+    private long headSize;
+
+    private ValueLog(
+            @NotNull final Path dir,
+            final int threshold,
+            final long segmentBytes) {
+        this.dir = dir;
+        this.threshold = threshold;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Opens the log in its own directory appending to the last segment unless it is full.
+     *
+     * @param dir          directory of the log, created if absent
+     * @param threshold    the minimal size of a value to separate
+     * @param segmentBytes the size to seal a segment at
+     */
+    @NotNull
+    public static ValueLog open(
+            @NotNull final File dir,
+            final int threshold,
+            final long segmentBytes) throws IOException {
+        if (threshold <= 0 || segmentBytes <= 0) {
+            throw new IllegalArgumentException("Non-positive value log limits");
+        }
+        final ValueLog log = new ValueLog(dir.toPath(), threshold, segmentBytes);
+        java.nio.file.Files.createDirectories(log.dir);
+        long last = -1L;
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                final Matcher matcher = NAME.matcher(file.getName());
+                if (matcher.matches()) {
+                    final long segment = Long.parseLong(matcher.group(1));
+                    log.segments.put(segment, FileChannel.open(file.toPath(), StandardOpenOption.READ));
+                    last = Math.max(last, segment);
+                }
+            }
+        }
+        if (last < 0) {
+            log.roll(0L);
+        } else {
+            log.reopen(last);
+        }
+        return log;
+    }
+
+    public int threshold() {
+        return threshold;
+    }
+
+    /**
+     * Checks whether the value should be stored in the log.
+     */
+    public boolean separates(@NotNull final ByteBuffer value) {
+        return value.remaining() >= threshold;
+    }
+
+    /**
+     * Appends the value.
+     *
+     * @return the pointer to store instead of the value
+     */
+    @NotNull
+    public synchronized ByteBuffer append(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        if (headSize >= segmentBytes) {
+            roll(active + 1);
+        }
+        final ByteBuffer entry = ByteBuffer.allocate(HEADER + key.remaining() + value.remaining());
+        entry.putInt(key.remaining()).putInt(value.remaining());
+        entry.put(key.duplicate()).put(value.duplicate());
+        entry.flip();
+
+        final long valueOffset = headSize + HEADER + key.remaining();
+        while (entry.hasRemaining()) {
+            headSize += head.write(entry);
+        }
+        return pointer(active, valueOffset, value.remaining());
+    }
+
+    /**
+     * Keeps the segments collected from now on until the pin is closed.
+     */
+    @NotNull
+    public synchronized Pin pin() {
+        pins.merge(epoch, 1, Integer::sum);
+        return new Pin(epoch);
+    }
+
+    /**
+     * Reads the value by the pointer obtained under a {@link #pin()} which is still open.
+     */
+    @NotNull
+    public ByteBuffer read(@NotNull final ByteBuffer pointer) throws IOException {
+        final long segment = pointer.getLong(pointer.position());
+        final long offset = pointer.getLong(pointer.position() + Long.BYTES);
+        final int length = pointer.getInt(pointer.position() + 2 * Long.BYTES);
+        FileChannel channel = segments.get(segment);
+        if (channel == null) {
+            channel = retired.get(segment);
+        }
+        if (channel == null) {
+            throw new IOException("No value log segment " + segment);
+        }
+        final ByteBuffer result = ByteBuffer.allocate(length);
+        readFully(channel, result, offset);
+        return result.flip();
+    }
+
+    /**
+     * Makes the appended values durable, supposed to precede the durability of the pointers.
+     */
+    public synchronized void sync() throws IOException {
+        head.force(false);
+    }
+
+    /**
+     * Obtains the sealed segments available for collection, the oldest first.
+     */
+    @NotNull
+    public synchronized List<Long> sealed() {
+        final List<Long> result = new ArrayList<>(segments.keySet());
+        result.remove(active);
+        return result;
+    }
+
+    /**
+     * Moves the live values of the sealed segment to the head of the log and removes the segment
+     * as soon as the pins taken before are closed.
+     *
+     * @return the number of bytes reclaimed
+     */
+    public long collect(
+            final long segment,
+            @NotNull final Liveness liveness,
+            @NotNull final Relocation relocation) throws IOException {
+        final FileChannel channel;
+        synchronized (this) {
+            if (segment == active) {
+                throw new IllegalArgumentException("Can't collect the active segment");
+            }
+            channel = segments.get(segment);
+            if (channel == null) {
+                throw new IllegalArgumentException("No value log segment " + segment);
+            }
+        }
+
+        final long size = validSize(channel);
+        final List<ByteBuffer[]> relocated = new ArrayList<>();
+        long moved = 0;
+        long offset = 0;
+        final ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (offset + HEADER <= size) {
+            header.clear();
+            readFully(channel, header, offset);
+            final int keyLength = header.getInt(0);
+            final int valueLength = header.getInt(Integer.BYTES);
+            final long valueOffset = offset + HEADER + keyLength;
+            final ByteBuffer key = ByteBuffer.allocate(keyLength);
+            readFully(channel, key, offset + HEADER);
+            key.flip();
+            final ByteBuffer pointer = pointer(segment, valueOffset, valueLength);
+            if (liveness.isLive(key, pointer)) {
+                final ByteBuffer value = ByteBuffer.allocate(valueLength);
+                readFully(channel, value, valueOffset);
+                value.flip();
+                relocated.add(new ByteBuffer[]{key, pointer, append(key, value)});
+                moved += HEADER + keyLength + valueLength;
+            }
+            offset = valueOffset + valueLength;
+        }
+
+        // The moved values must be durable before they are referenced and their old copies are gone
+        sync();
+        for (final ByteBuffer[] entry : relocated) {
+            relocation.relocate(entry[0], entry[1], entry[2]);
+        }
+        synchronized (this) {
+            // The pins taken from now on can't obtain the old pointers
+            retired.put(segment, channel);
+            segments.remove(segment);
+            retiredAt.put(segment, ++epoch);
+            reclaim();
+        }
+        return size - moved;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        head.force(false);
+        head.close();
+        for (final FileChannel channel : segments.values()) {
+            channel.close();
+        }
+        for (final FileChannel channel : retired.values()) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Deletes the retired segments no open pin may read.
+     */
+    private void reclaim() throws IOException {
+        final long oldest = pins.isEmpty() ? Long.MAX_VALUE : pins.firstKey();
+        for (final Iterator<Map.Entry<Long, Long>> iter = retiredAt.entrySet().iterator(); iter.hasNext(); ) {
+            final Map.Entry<Long, Long> entry = iter.next();
+            if (entry.getValue() <= oldest) {
+                // Retired before the oldest pin was taken
+                final long segment = entry.getKey();
+                iter.remove();
+                retired.remove(segment).close();
+                java.nio.file.Files.delete(file(segment));
+            }
+        }
+    }
+
+    private synchronized void unpin(final long pinned) throws IOException {
+        pins.computeIfPresent(pinned, (e, count) -> count == 1 ? null : count - 1);
+        reclaim();
+    }
+
+    /**
+     * Continues the last segment after its last complete entry unless the segment is full.
+     */
+    private void reopen(final long segment) throws IOException {
+        final Path path = file(segment);
+        final long size = validSize(segments.get(segment));
+        if (size >= segmentBytes) {
+            roll(segment + 1);
+            return;
+        }
+        head = FileChannel.open(path, StandardOpenOption.WRITE);
+        // Don't append after a torn entry, collection would stop at it
+        head.truncate(size);
+        head.position(size);
+        active = segment;
+        headSize = size;
+    }
+
+    /**
+     * Obtains the size of the complete entries skipping the torn tail of a crashed append.
+     */
+    private static long validSize(@NotNull final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER);
+        long offset = 0;
+        while (offset + HEADER <= size) {
+            header.clear();
+            readFully(channel, header, offset);
+            final int keyLength = header.getInt(0);
+            final int valueLength = header.getInt(Integer.BYTES);
+            final long end = offset + HEADER + keyLength + valueLength;
+            if (keyLength < 0 || valueLength < 0 || end > size) {
+                break;
+            }
+            offset = end;
+        }
+        return offset;
+    }
+
+    private void roll(final long segment) throws IOException {
+        if (head != null) {
+            head.force(false);
+            head.close();
+        }
+        final Path path = file(segment);
+        head = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segments.put(segment, FileChannel.open(path, StandardOpenOption.READ));
+        active = segment;
+        headSize = 0;
+    }
+
+    @NotNull
+    private Path file(final long segment) {
+        return dir.resolve(PREFIX + segment + SUFFIX);
+    }
+
+    @NotNull
+    private static ByteBuffer pointer(
+            final long segment,
+            final long offset,
+            final int length) {
+        return ByteBuffer.allocate(POINTER_SIZE)
+                .putLong(segment)
+                .putLong(offset)
+                .putInt(length)
+                .flip();
+    }
+
+    private static void readFully(
+            @NotNull final FileChannel channel,
+            @NotNull final ByteBuffer dst,
+            final long offset) throws IOException {
+        long position = offset;
+        while (dst.hasRemaining()) {
+            final int read = channel.read(dst, position);
+            if (read < 0) {
+                throw new EOFException("Truncated value log at " + position);
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Checks whether the key still refers to the value by the pointer.
+     */
+    @FunctionalInterface
+    public interface Liveness {
+        boolean isLive(
+                @NotNull ByteBuffer key,
+                @NotNull ByteBuffer pointer) throws IOException;
+    }
+
+    /**
+     * Replaces the pointer of the key unless the key has been updated meanwhile.
+     */
+    @FunctionalInterface
+    public interface Relocation {
+        void relocate(
+                @NotNull ByteBuffer key,
+                @NotNull ByteBuffer from,
+                @NotNull ByteBuffer to) throws IOException;
+    }
+
+    /**
+     * Keeps the segments readable, see {@link #pin()}.
+     */
+    public final class Pin implements Closeable {
+        private final long pinned;
+        private boolean closed;
+
+        private Pin(final long pinned) {
+            this.pinned = pinned;
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (ValueLog.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                unpin(pinned);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event to be emitted by a {@link DAO} implementation around forcing the write-ahead log to disk.
+ *
+ * @author IgorLo
+ */
+@Name("ru.mail.polis.WalForce")
+@Label("WAL Force")
+@Category({"Highload DHT", "Storage"})
+@Description("Write-ahead log forced to the storage device")
+@StackTrace(false)
+public final class WalForceEvent extends jdk.jfr.Event {
+    @Label("Log")
+    public String log;
+
+    @Label("Bytes")
+    @Description("Bytes appended since the previous force")
+    @DataAmount
+    public long bytes;
+}
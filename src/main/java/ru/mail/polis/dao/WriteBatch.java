@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Upserts and removes applied by {@link DAO#write(WriteBatch)} as a whole.
+ * <p>
+ * The keys and the values are copied when added, so the caller may reuse the buffers.
+ * The operations are kept in order, so for the same key the last one wins.
+ * Not thread-safe.
+ *
+ * @author IgorLo
+ */
+public final class WriteBatch {
+    private final List<ByteBuffer> keys = new ArrayList<>();
+    // null stands for a remove
+    private final List<ByteBuffer> values = new ArrayList<>();
+
+    private long bytes;
+
+    @NotNull
+    public WriteBatch upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        return add(key, copy(value));
+    }
+
+    @NotNull
+    public WriteBatch remove(@NotNull final ByteBuffer key) {
+        return add(key, null);
+    }
+
+    /**
+     * The number of operations.
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    /**
+     * The total size of the keys and the values to account the batch against memory limits.
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    @NotNull
+    public ByteBuffer key(final int index) {
+        return keys.get(index).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return {@code null} if the operation is a remove
+     */
+    @Nullable
+    public ByteBuffer value(final int index) {
+        final ByteBuffer value = values.get(index);
+        return value == null ? null : value.asReadOnlyBuffer();
+    }
+
+    public void clear() {
+        keys.clear();
+        values.clear();
+        bytes = 0L;
+    }
+
+    @NotNull
+    private WriteBatch add(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) {
+        keys.add(copy(key));
+        values.add(value);
+        bytes += key.remaining() + (value == null ? 0 : value.remaining());
+        return this;
+    }
+
+    @NotNull
+    private static ByteBuffer copy(@NotNull final ByteBuffer buffer) {
+        final ByteBuffer result = ByteBuffer.allocate(buffer.remaining());
+        result.put(buffer.duplicate());
+        result.rewind();
+        return result;
+    }
+}
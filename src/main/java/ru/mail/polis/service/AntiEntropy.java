@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ru.mail.polis.dao.MerkleTree;
+
+/**
+ * Background anti-entropy between replicas.
+ * <p>
+ * Periodically compares the local {@link MerkleTree} with the trees
+ * of the other replicas and repairs only the key ranges of the differing leaves.
+ * Every pair of replicas compares the trees of just the keys both of them own,
+ * see {@link #shared(Topology, String, String, int)}.
+ * A failure of a replica doesn't affect the repair of the others.
+ *
+ * @author IgorLo
+ */
+public final class AntiEntropy implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(AntiEntropy.class);
+
+    private final Map<Replica, MerkleTree> trees;
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "anti-entropy");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * @param trees the other replicas with the local Merkle trees of the keys shared with them,
+     *              every local write must be accounted in all the trees
+     */
+    public AntiEntropy(@NotNull final Map<Replica, MerkleTree> trees) {
+        this.trees = trees;
+    }
+
+    /**
+     * The scope of the Merkle trees compared by the two nodes.
+     *
+     * @param count the replication factor
+     */
+    @NotNull
+    public static Predicate<ByteBuffer> shared(
+            @NotNull final Topology topology,
+            @NotNull final String local,
+            @NotNull final String peer,
+            final int count) {
+        return key -> {
+            final List<String> replicas = topology.replicasFor(key, count);
+            return replicas.contains(local) && replicas.contains(peer);
+        };
+    }
+
+    public void start(
+            final long period,
+            @NotNull final TimeUnit unit) {
+        executor.scheduleWithFixedDelay(this::runSafely, period, period, unit);
+    }
+
+    private void runSafely() {
+        try {
+            run();
+        } catch (RuntimeException e) {
+            // Must not cancel the periodic task
+            log.warn("Anti-entropy round failed", e);
+        }
+    }
+
+    /**
+     * Runs a single anti-entropy round.
+     *
+     * @return the number of repaired ranges
+     */
+    public int run() {
+        int repaired = 0;
+        for (final Map.Entry<Replica, MerkleTree> entry : trees.entrySet()) {
+            final Replica replica = entry.getKey();
+            try {
+                final MerkleTree.Snapshot local = entry.getValue().snapshot();
+                final List<MerkleTree.Range> ranges = local.diff(replica.merkleTree());
+                if (!ranges.isEmpty()) {
+                    replica.repair(ranges);
+                    repaired += ranges.size();
+                }
+            } catch (IOException | RuntimeException e) {
+                log.info("Can't repair replica {}", replica, e);
+            }
+        }
+        return repaired;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Another replica as seen by the local node.
+     */
+    public interface Replica {
+        /**
+         * Obtains the current {@link MerkleTree.Snapshot} of the replica over the keys shared with the local node.
+         */
+        @NotNull
+        MerkleTree.Snapshot merkleTree() throws IOException;
+
+        /**
+         * Streams the shared records of the ranges between the local node and the replica,
+         * each range is a bounded {@code range(getFrom(), getTo())} scan. Only the differing ranges are passed,
+         * the direction and the conflict resolution are up to the replication protocol.
+         */
+        void repair(@NotNull List<MerkleTree.Range> ranges) throws IOException;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.KeyLocks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Entity tags of {@code /v0/entity} values and the conditional writes checking them.
+ * <p>
+ * {@code GET} returns the tag of the value in {@link #ETAG} header, then the client passes it
+ * to a {@code PUT} or a {@code DELETE} in {@link #IF_MATCH} to write only over the value it has read,
+ * or {@code If-None-Match: *} to create the value only if it is absent. The service responds
+ * {@code 412} if {@link #write(DAO, ByteBuffer, String, String, ByteBuffer)} returns {@code false}.
+ * The tag is a hash of the value, so it needs no extra storage.
+ *
+ * @author IgorLo
+ */
+public final class EntityTags {
+    /**
+     * Header prefixes in one-nio {@code Request#getHeader(String)} convention.
+     */
+    public static final String ETAG = "ETag: ";
+    public static final String IF_MATCH = "If-Match: ";
+    public static final String IF_NONE_MATCH = "If-None-Match: ";
+
+    private static final String ANY = "*";
+    private static final String WEAK = "W/";
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private EntityTags() {
+        // Not instantiable
+    }
+
+    /**
+     * Obtains the quoted tag of the value.
+     */
+    @NotNull
+    public static String of(@NotNull final ByteBuffer value) {
+        return '"' + HASH.hashBytes(value.duplicate()).toString() + '"';
+    }
+
+    /**
+     * Checks the preconditions against the current value of the key.
+     *
+     * @param current     {@code null} if the key is absent
+     * @param ifMatch     {@link #IF_MATCH} header value if any
+     * @param ifNoneMatch {@link #IF_NONE_MATCH} header value if any
+     */
+    public static boolean matches(
+            @Nullable final ByteBuffer current,
+            @Nullable final String ifMatch,
+            @Nullable final String ifNoneMatch) {
+        if (ifMatch != null && (current == null || !contains(ifMatch, current, false))) {
+            return false;
+        }
+        return ifNoneMatch == null || current == null || !contains(ifNoneMatch, current, true);
+    }
+
+    /**
+     * Writes the value if the preconditions hold for the current one.
+     * <p>
+     * The value is written with {@link DAO#compareAndSet(ByteBuffer, ByteBuffer, ByteBuffer)}
+     * over the checked one, so a concurrent write in between makes the preconditions
+     * checked again against the new value and is never overwritten blindly.
+     *
+     * @param update {@code null} to remove the key
+     * @return {@code false} if the preconditions don't hold
+     */
+    public static boolean write(
+            @NotNull final DAO dao,
+            @NotNull final ByteBuffer key,
+            @Nullable final String ifMatch,
+            @Nullable final String ifNoneMatch,
+            @Nullable final ByteBuffer update) throws IOException {
+        while (true) {
+            final ByteBuffer current = KeyLocks.current(dao, key);
+            if (!matches(current, ifMatch, ifNoneMatch)) {
+                return false;
+            }
+            if (dao.compareAndSet(key, current, update)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param weak whether to use the weak comparison, RFC 7232 allows it for {@link #IF_NONE_MATCH} only
+     */
+    private static boolean contains(
+            @NotNull final String tags,
+            @NotNull final ByteBuffer value,
+            final boolean weak) {
+        final String tag = of(value);
+        for (final String candidate : tags.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals(ANY)) {
+                return true;
+            }
+            if (trimmed.startsWith(WEAK)) {
+                if (!weak) {
+                    // A weak tag never matches in the strong comparison
+                    continue;
+                }
+                trimmed = trimmed.substring(WEAK.length());
+            }
+            if (trimmed.equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
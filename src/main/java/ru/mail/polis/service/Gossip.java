@@ -0,0 +1,276 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import one.nio.http.HttpClient;
+import one.nio.http.HttpException;
+import one.nio.http.Response;
+import one.nio.net.ConnectionString;
+import one.nio.pool.PoolException;
+
+/**
+ * Gossip-based cluster membership over the one-nio HTTP stack.
+ * <p>
+ * Every node increments its own heartbeat counter and periodically exchanges
+ * the known counters with a random peer via {@code PUT /v0/gossip}
+ * (see {@link #PATH}). An increased counter is a heartbeat of its node for
+ * the {@link PhiAccrualFailureDetector}, so the suspicion spreads without
+ * direct probing of every node. The counter is qualified with the generation
+ * of the node, i.e. its start time, so a restarted node counting from zero
+ * again is not taken for stale gossip. The service routes {@link #PATH} to
+ * {@link #receive(byte[])} and skips the peers not passing {@link #isAlive(String)}.
+ *
+ * @author IgorLo
+ */
+public final class Gossip implements Closeable {
+    public static final String PATH = "/v0/gossip";
+
+    private static final Logger log = LoggerFactory.getLogger(Gossip.class);
+
+    private final String local;
+    private final PhiAccrualFailureDetector detector;
+    private final Map<String, HttpClient> clients;
+    private final Map<String, Heartbeat> heartbeats = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "gossip");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * @param local     this node
+     * @param nodes     all the cluster nodes including the local one
+     * @param detector  failure detector fed by the gossip
+     * @param timeoutMs timeout of a gossip exchange
+     */
+    public Gossip(
+            @NotNull final String local,
+            @NotNull final List<String> nodes,
+            @NotNull final PhiAccrualFailureDetector detector,
+            final int timeoutMs) {
+        this(local, nodes, detector, timeoutMs, System.currentTimeMillis());
+    }
+
+    /**
+     * @param generation greater than the one of any previous run of the node
+     */
+    Gossip(
+            @NotNull final String local,
+            @NotNull final List<String> nodes,
+            @NotNull final PhiAccrualFailureDetector detector,
+            final int timeoutMs,
+            final long generation) {
+        this.local = local;
+        this.detector = detector;
+        this.clients = new ConcurrentHashMap<>();
+        for (final String node : nodes) {
+            if (!node.equals(local)) {
+                clients.put(node, new HttpClient(new ConnectionString(node + "?timeout=" + timeoutMs)));
+                // A node down from the start is suspected too
+                detector.expect(node);
+            }
+        }
+        heartbeats.put(local, new Heartbeat(generation, 0L));
+    }
+
+    public void start(
+            final long period,
+            @NotNull final TimeUnit unit) {
+        executor.scheduleAtFixedRate(this::round, period, period, unit);
+    }
+
+    /**
+     * Checks whether the node is not suspected to be down.
+     */
+    public boolean isAlive(@NotNull final String node) {
+        return node.equals(local) || detector.isAvailable(node);
+    }
+
+    /**
+     * Filters out the nodes suspected to be down preserving the order.
+     */
+    @NotNull
+    public List<String> alive(@NotNull final List<String> nodes) {
+        final List<String> result = new ArrayList<>(nodes.size());
+        for (final String node : nodes) {
+            if (isAlive(node)) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Handles the gossip from a peer.
+     *
+     * @param body the state of the peer
+     * @return the local state after merge
+     * @throws IllegalArgumentException if the body is malformed
+     */
+    @NotNull
+    public byte[] receive(@NotNull final byte[] body) {
+        merge(decode(body));
+        return encode();
+    }
+
+    /**
+     * Increments the heartbeat counter of the local node.
+     */
+    void beat() {
+        heartbeats.computeIfPresent(local, (node, heartbeat) -> heartbeat.next());
+    }
+
+    private void round() {
+        beat();
+
+        final List<String> peers = new ArrayList<>(clients.keySet());
+        if (peers.isEmpty()) {
+            return;
+        }
+        final String peer = peers.get(ThreadLocalRandom.current().nextInt(peers.size()));
+        try {
+            final Response response = clients.get(peer).put(PATH, encode());
+            if (response.getStatus() == 200) {
+                merge(decode(response.getBody()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (PoolException | IOException | HttpException e) {
+            // The silence is accounted for by the failure detector
+            log.debug("Can't gossip with {}", peer, e);
+        } catch (IllegalArgumentException e) {
+            // Must not cancel the periodic task
+            log.warn("Malformed gossip from {}", peer, e);
+        }
+    }
+
+    void merge(@NotNull final Map<String, Heartbeat> remote) {
+        for (final Map.Entry<String, Heartbeat> entry : remote.entrySet()) {
+            final String node = entry.getKey();
+            if (node.equals(local) || !clients.containsKey(node)) {
+                continue;
+            }
+            final Heartbeat heartbeat = entry.getValue();
+            final Heartbeat merged = heartbeats.merge(
+                    node,
+                    heartbeat,
+                    (previous, next) -> previous.compareTo(next) < 0 ? next : previous);
+            if (merged == heartbeat) {
+                detector.heartbeat(node);
+            }
+        }
+    }
+
+    @NotNull
+    byte[] encode() {
+        final List<byte[]> names = new ArrayList<>(heartbeats.size());
+        final List<Heartbeat> values = new ArrayList<>(heartbeats.size());
+        int size = Integer.BYTES;
+        for (final Map.Entry<String, Heartbeat> entry : heartbeats.entrySet()) {
+            final byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            values.add(entry.getValue());
+            size += Integer.BYTES + name.length + 2 * Long.BYTES;
+        }
+
+        final ByteBuffer result = ByteBuffer.allocate(size);
+        result.putInt(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            final Heartbeat heartbeat = values.get(i);
+            result.putInt(names.get(i).length).put(names.get(i))
+                    .putLong(heartbeat.generation)
+                    .putLong(heartbeat.counter);
+        }
+        return result.array();
+    }
+
+    @NotNull
+    static Map<String, Heartbeat> decode(@NotNull final byte[] body) {
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        try {
+            final int count = buffer.getInt();
+            final Map<String, Heartbeat> result = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                final int length = buffer.getInt();
+                if (length > buffer.remaining()) {
+                    throw new BufferUnderflowException();
+                }
+                final byte[] name = new byte[length];
+                buffer.get(name);
+                final long generation = buffer.getLong();
+                result.put(new String(name, StandardCharsets.UTF_8), new Heartbeat(generation, buffer.getLong()));
+            }
+            return result;
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IllegalArgumentException("Malformed gossip", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        for (final HttpClient client : clients.values()) {
+            client.close();
+        }
+    }
+
+    /**
+     * Heartbeat counter of a run of a node ordered by the generation first.
+     */
+    static final class Heartbeat implements Comparable<Heartbeat> {
+        private final long generation;
+        private final long counter;
+
+        Heartbeat(
+                final long generation,
+                final long counter) {
+            this.generation = generation;
+            this.counter = counter;
+        }
+
+        @NotNull
+        Heartbeat next() {
+            return new Heartbeat(generation, counter + 1);
+        }
+
+        @Override
+        public int compareTo(@NotNull final Heartbeat other) {
+            final int generations = Long.compare(generation, other.generation);
+            return generations != 0 ? generations : Long.compare(counter, other.counter);
+        }
+    }
+}
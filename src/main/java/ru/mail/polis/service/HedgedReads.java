@@ -0,0 +1,380 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.Prometheus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Speculative (hedged) replica reads.
+ * <p>
+ * The coordinator asks {@code ack} replicas first. If they don't answer within
+ * the p95 latency of the slowest of them, one extra replica is asked.
+ * The latency of both the answers and the failures is tracked over the last
+ * complete {@link #WINDOW}, so the threshold follows the current state of a replica.
+ * The first {@code ack} answers win and the rest of the requests are cancelled.
+ * Extra requests are capped by a fraction of all the reads.
+ *
+ * @author IgorLo
+ */
+public final class HedgedReads {
+    private static final double PERCENTILE = 0.95;
+    static final long WINDOW = TimeUnit.SECONDS.toNanos(10);
+
+    private final ScheduledExecutorService scheduler;
+    private final double budget;
+    private final long minDelayMicros;
+    private final LongSupplier clock;
+    private final Map<String, WindowedLatency> latencies = new ConcurrentHashMap<>();
+
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+
+    /**
+     * @param scheduler      executor to fire the speculative requests
+     * @param budget         max ratio of speculative requests to reads, e.g. {@code 0.05}
+     * @param minDelayMicros lower bound of the hedging threshold
+     */
+    public HedgedReads(
+            @NotNull final ScheduledExecutorService scheduler,
+            final double budget,
+            final long minDelayMicros) {
+        this(scheduler, budget, minDelayMicros, System::nanoTime);
+    }
+
+    HedgedReads(
+            @NotNull final ScheduledExecutorService scheduler,
+            final double budget,
+            final long minDelayMicros,
+            @NotNull final LongSupplier clock) {
+        if (budget < 0.0 || budget > 1.0) {
+            throw new IllegalArgumentException("Budget out of range: " + budget);
+        }
+        this.scheduler = scheduler;
+        this.budget = budget;
+        this.minDelayMicros = minDelayMicros;
+        this.clock = clock;
+    }
+
+    /**
+     * Reads from the replicas in the given order of preference.
+     *
+     * @param replicas all the replicas of the key
+     * @param ack      the number of answers needed, less than the number of replicas to hedge
+     * @return the first {@code ack} successful answers
+     */
+    @NotNull
+    public <T> CompletableFuture<List<T>> read(
+            @NotNull final List<Replica<T>> replicas,
+            final int ack) {
+        if (ack <= 0 || ack > replicas.size()) {
+            throw new IllegalArgumentException("Wrong ack " + ack + " for " + replicas.size() + " replicas");
+        }
+        reads.incrementAndGet();
+
+        final Call<T> call = new Call<>(replicas, ack);
+        long delay = minDelayMicros;
+        for (int i = 0; i < ack; i++) {
+            delay = Math.max(delay, threshold(replicas.get(i).peer));
+            call.send(false);
+        }
+        if (ack < replicas.size()) {
+            scheduler.schedule(() -> hedge(call), delay, TimeUnit.MICROSECONDS);
+        }
+        return call.result;
+    }
+
+    private <T> void hedge(@NotNull final Call<T> call) {
+        if (call.result.isDone()) {
+            return;
+        }
+        if (!acquireBudget()) {
+            budgetExhausted.incrementAndGet();
+            return;
+        }
+        if (!call.send(true)) {
+            // Nobody to hedge to, give the budget back
+            hedges.decrementAndGet();
+        }
+    }
+
+    private boolean acquireBudget() {
+        while (true) {
+            final long current = hedges.get();
+            if (current + 1 > budget * reads.get()) {
+                return false;
+            }
+            if (hedges.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    long threshold(@NotNull final String peer) {
+        final WindowedLatency latency = latencies.get(peer);
+        return latency == null ? minDelayMicros : latency.percentile(PERCENTILE, clock.getAsLong());
+    }
+
+    private void record(
+            @NotNull final String peer,
+            final long start) {
+        final long now = clock.getAsLong();
+        latencies.computeIfAbsent(peer, p -> new WindowedLatency(now))
+                .record(TimeUnit.NANOSECONDS.toMicros(now - start), now);
+    }
+
+    public long reads() {
+        return reads.get();
+    }
+
+    /**
+     * The number of speculative requests sent.
+     */
+    public long hedges() {
+        return hedges.get();
+    }
+
+    /**
+     * The number of speculative requests whose answer was used.
+     */
+    public long hedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * The number of speculative requests suppressed by the budget.
+     */
+    public long budgetExhausted() {
+        return budgetExhausted.get();
+    }
+
+    /**
+     * Renders the counters in Prometheus text format.
+     */
+    public void writeTo(@NotNull final StringBuilder out) {
+        Prometheus.metric(out, "hedged_reads_total", "counter",
+                "Reads eligible for hedging", reads.get());
+        Prometheus.metric(out, "hedged_requests_total", "counter",
+                "Speculative requests sent", hedges.get());
+        Prometheus.metric(out, "hedged_wins_total", "counter",
+                "Speculative requests whose answer was used", hedgeWins.get());
+        Prometheus.metric(out, "hedged_budget_exhausted_total", "counter",
+                "Speculative requests suppressed by the budget", budgetExhausted.get());
+    }
+
+    /**
+     * A replica to read from.
+     */
+    public static final class Replica<T> {
+        private final String peer;
+        private final Supplier<CompletableFuture<T>> request;
+
+        /**
+         * @param peer    identifies the replica to track its latency
+         * @param request sends the read request to the replica
+         */
+        public Replica(
+                @NotNull final String peer,
+                @NotNull final Supplier<CompletableFuture<T>> request) {
+            this.peer = peer;
+            this.request = request;
+        }
+    }
+
+    private static boolean cancelled(final Throwable error) {
+        return error instanceof CancellationException
+                || error instanceof CompletionException && error.getCause() instanceof CancellationException;
+    }
+
+    /**
+     * Latency over the last complete window, or the current one until the first window completes.
+     */
+    private static final class WindowedLatency {
+        private volatile LatencyHistogram current = new LatencyHistogram();
+        private volatile LatencyHistogram previous;
+        private volatile long started;
+
+        WindowedLatency(final long now) {
+            this.started = now;
+        }
+
+        void record(
+                final long micros,
+                final long now) {
+            rotate(now);
+            current.record(micros);
+        }
+
+        long percentile(
+                final double percentile,
+                final long now) {
+            rotate(now);
+            final LatencyHistogram last = previous;
+            return (last == null ? current : last).percentile(percentile);
+        }
+
+        private void rotate(final long now) {
+            if (now - started < WINDOW) {
+                return;
+            }
+            synchronized (this) {
+                final long elapsed = now - started;
+                if (elapsed < WINDOW) {
+                    return;
+                }
+                // Nothing recorded for a whole window means nothing is known about the replica
+                previous = elapsed < 2 * WINDOW ? current : null;
+                current = new LatencyHistogram();
+                started = now;
+            }
+        }
+    }
+
+    private final class Call<T> {
+        private final List<Replica<T>> replicas;
+        private final int ack;
+        private final CompletableFuture<List<T>> result = new CompletableFuture<>();
+        private final List<T> answers;
+        private final List<CompletableFuture<T>> inFlight;
+        private int sent;
+        private int failed;
+        // Set under the lock before the result is completed, so no request is added to inFlight after
+        private boolean done;
+
+        Call(
+                @NotNull final List<Replica<T>> replicas,
+                final int ack) {
+            this.replicas = replicas;
+            this.ack = ack;
+            this.answers = new ArrayList<>(ack);
+            this.inFlight = new ArrayList<>(replicas.size());
+        }
+
+        /**
+         * @return {@code false} if there is no replica left to ask
+         */
+        boolean send(final boolean speculative) {
+            final Replica<T> replica;
+            synchronized (this) {
+                if (done || sent == replicas.size()) {
+                    return false;
+                }
+                replica = replicas.get(sent++);
+            }
+
+            final long start = clock.getAsLong();
+            final CompletableFuture<T> future;
+            try {
+                future = replica.request.get();
+            } catch (RuntimeException e) {
+                // Couldn't even send, e.g. no connection, so a failure of the replica like any other
+                record(replica.peer, start);
+                onFailure(e);
+                return true;
+            }
+            final boolean late;
+            synchronized (this) {
+                late = done;
+                if (!late) {
+                    inFlight.add(future);
+                }
+            }
+            if (late) {
+                // Lost the race with the last answer
+                future.cancel(true);
+            }
+            future.whenComplete((answer, error) -> {
+                if (!cancelled(error)) {
+                    // A failure is as slow as it takes to learn about it
+                    record(replica.peer, start);
+                }
+                if (error == null) {
+                    onSuccess(answer, speculative);
+                } else {
+                    onFailure(error);
+                }
+            });
+            return true;
+        }
+
+        private void onSuccess(
+                final T answer,
+                final boolean speculative) {
+            final List<T> complete;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                answers.add(answer);
+                if (speculative) {
+                    hedgeWins.incrementAndGet();
+                }
+                if (answers.size() < ack) {
+                    return;
+                }
+                complete = new ArrayList<>(answers);
+                done = true;
+            }
+            cancelRest();
+            result.complete(complete);
+        }
+
+        private void onFailure(@NotNull final Throwable error) {
+            final boolean lost;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                failed++;
+                lost = replicas.size() - failed < ack;
+                done = lost;
+            }
+            if (lost) {
+                cancelRest();
+                result.completeExceptionally(error);
+            } else {
+                // Failover is not speculative and doesn't consume the budget
+                send(false);
+            }
+        }
+
+        private void cancelRest() {
+            final List<CompletableFuture<T>> futures;
+            synchronized (this) {
+                futures = new ArrayList<>(inFlight);
+            }
+            for (final CompletableFuture<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+}
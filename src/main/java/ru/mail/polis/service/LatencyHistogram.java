@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram in the spirit of HdrHistogram.
+ * <p>
+ * Each power of two is split into {@code 2^SUB_BITS} linear buckets,
+ * so the relative error of the reported values stays within ~6%.
+ * Neither {@link #record(long)} nor {@link #percentile(double)} locks or allocates.
+ *
+ * @author IgorLo
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS) << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Records a non-negative value, negative values are recorded as zero.
+     */
+    public void record(final long value) {
+        final long normalized = Math.max(0L, value);
+        counts.incrementAndGet(index(normalized));
+        sum.add(normalized);
+    }
+
+    /**
+     * The sum of all the recorded values.
+     */
+    public long sum() {
+        return sum.sum();
+    }
+
+    public long count() {
+        long result = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            result += counts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Obtains the upper bound of the bucket containing the given percentile.
+     *
+     * @param percentile in range [0; 1]
+     * @return the value or {@code 0} if nothing was recorded
+     */
+    public long percentile(final double percentile) {
+        if (percentile < 0.0 || percentile > 1.0) {
+            throw new IllegalArgumentException("Percentile out of range: " + percentile);
+        }
+
+        final long total = count();
+        if (total == 0L) {
+            return 0L;
+        }
+
+        // No snapshot: the records made meanwhile may only skew the result by themselves
+        final long rank = Math.max(1L, (long) Math.ceil(percentile * total));
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return highestEquivalent(i);
+            }
+        }
+        return highestEquivalent(BUCKETS - 1);
+    }
+
+    static int index(final long value) {
+        if (value < SUB) {
+            return (int) value;
+        }
+        final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) - SUB);
+    }
+
+    static long lowestEquivalent(final int index) {
+        if (index < SUB) {
+            return index;
+        }
+        final int shift = (index >>> SUB_BITS) - 1;
+        return ((long) (index & (SUB - 1)) + SUB) << shift;
+    }
+
+    static long highestEquivalent(final int index) {
+        if (index < SUB) {
+            return index;
+        }
+        final int shift = (index >>> SUB_BITS) - 1;
+        return lowestEquivalent(index) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The phi accrual failure detector by Hayashibara et al.
+ * <p>
+ * Instead of a boolean verdict it computes the suspicion level {@code phi}
+ * from the distribution of the heartbeat intervals observed so far,
+ * so a node is suspected as soon as its silence becomes unusually long
+ * for <b>this</b> node and is trusted again with the next heartbeat.
+ *
+ * @author IgorLo
+ */
+public final class PhiAccrualFailureDetector {
+    private final double threshold;
+    private final int window;
+    private final long firstHeartbeatMillis;
+    private final long minStdDevMillis;
+    private final long acceptablePauseMillis;
+    private final LongSupplier clock;
+    private final Map<String, History> histories = new ConcurrentHashMap<>();
+
+    /**
+     * @param threshold             phi to consider a node down, e.g. {@code 8}
+     * @param window                the number of heartbeat intervals to keep
+     * @param firstHeartbeatMillis  expected interval before any statistics is collected
+     * @param minStdDevMillis       lower bound of the standard deviation
+     * @param acceptablePauseMillis pause (e.g. GC) not to be considered a failure
+     * @param clock                 milliseconds source
+     */
+    public PhiAccrualFailureDetector(
+            final double threshold,
+            final int window,
+            final long firstHeartbeatMillis,
+            final long minStdDevMillis,
+            final long acceptablePauseMillis,
+            @NotNull final LongSupplier clock) {
+        if (threshold <= 0.0 || window <= 0 || firstHeartbeatMillis <= 0 || minStdDevMillis <= 0) {
+            throw new IllegalArgumentException("Non-positive failure detector parameter");
+        }
+        this.threshold = threshold;
+        this.window = window;
+        this.firstHeartbeatMillis = firstHeartbeatMillis;
+        this.minStdDevMillis = minStdDevMillis;
+        this.acceptablePauseMillis = acceptablePauseMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Registers a heartbeat from the node.
+     */
+    public void heartbeat(@NotNull final String node) {
+        final long now = clock.getAsLong();
+        histories.computeIfAbsent(node, n -> new History(window, firstHeartbeatMillis)).heartbeat(now);
+    }
+
+    /**
+     * Starts accruing the suspicion of a node not heard of yet as if it has just sent a heartbeat,
+     * e.g. for every cluster node on start.
+     */
+    public void expect(@NotNull final String node) {
+        final long now = clock.getAsLong();
+        histories.computeIfAbsent(node, n -> new History(window, firstHeartbeatMillis)).expect(now);
+    }
+
+    /**
+     * Computes the suspicion level of the node, {@code 0} for the nodes neither heard of nor expected.
+     */
+    public double phi(@NotNull final String node) {
+        final History history = histories.get(node);
+        if (history == null) {
+            return 0.0;
+        }
+        return history.phi(clock.getAsLong(), minStdDevMillis, acceptablePauseMillis);
+    }
+
+    public boolean isAvailable(@NotNull final String node) {
+        return phi(node) < threshold;
+    }
+
+    /**
+     * Forgets the node, e.g. when it leaves the cluster.
+     */
+    public void remove(@NotNull final String node) {
+        histories.remove(node);
+    }
+
+    private static final class History {
+        private final long[] intervals;
+        private int size;
+        private int next;
+        private long sum;
+        private long squaresSum;
+        private long last = -1L;
+        // The last timestamp is not a heartbeat, so the silence since is not an interval
+        private boolean expected;
+
+        History(
+                final int window,
+                final long firstHeartbeatMillis) {
+            this.intervals = new long[window];
+            // Bootstrap with the expected interval and its quarter as the deviation
+            final long deviation = firstHeartbeatMillis / 4;
+            add(firstHeartbeatMillis - deviation);
+            add(firstHeartbeatMillis + deviation);
+        }
+
+        synchronized void heartbeat(final long now) {
+            if (last >= 0 && !expected) {
+                add(now - last);
+            }
+            last = now;
+            expected = false;
+        }
+
+        synchronized void expect(final long now) {
+            if (last < 0) {
+                last = now;
+                expected = true;
+            }
+        }
+
+        synchronized double phi(
+                final long now,
+                final long minStdDev,
+                final long acceptablePause) {
+            if (last < 0) {
+                return 0.0;
+            }
+            final double mean = (double) sum / size;
+            final double variance = (double) squaresSum / size - mean * mean;
+            final double stdDev = Math.max(Math.sqrt(Math.max(variance, 0.0)), minStdDev);
+            return phi(now - last, mean + acceptablePause, stdDev);
+        }
+
+        private void add(final long interval) {
+            if (size == intervals.length) {
+                final long evicted = intervals[next];
+                sum -= evicted;
+                squaresSum -= evicted * evicted;
+            } else {
+                size++;
+            }
+            intervals[next] = interval;
+            next = (next + 1) % intervals.length;
+            sum += interval;
+            squaresSum += interval * interval;
+        }
+
+        /**
+         * Logistic approximation of the normal CDF as used by Akka and Cassandra.
+         */
+        private static double phi(
+                final long elapsed,
+                final double mean,
+                final double stdDev) {
+            final double y = (elapsed - mean) / stdDev;
+            final double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            if (elapsed > mean) {
+                return -Math.log10(e / (1.0 + e));
+            } else {
+                return -Math.log10(1.0 - 1.0 / (1.0 + e));
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import ru.mail.polis.Record;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.KeyLocks;
+
+/**
+ * Online node addition.
+ * <p>
+ * While a node is joining, the writes go to the replicas in both the current and
+ * the next {@link Topology} (see {@link #writeReplicas(ByteBuffer)}), the reads are
+ * served by the current one. Meanwhile every node streams the records it is
+ * primary for and which move to the joining node. Once the streaming is over,
+ * the next topology becomes current.
+ * <p>
+ * The streamed records are read from a point in time, so they may be older than
+ * the dual writes the joining node has already got. The joining node applies them
+ * with a {@link Receiver}, which never overwrites a value nor resurrects a key
+ * removed by a dual write.
+ *
+ * @author IgorLo
+ */
+public final class Rebalancer {
+    private static final Logger log = LoggerFactory.getLogger(Rebalancer.class);
+
+    private final String local;
+    private final DAO dao;
+    private final int replicas;
+    private final RateLimiter throttle;
+    private final int batchBytes;
+
+    private volatile Topology current;
+    @Nullable
+    private volatile Topology next;
+
+    /**
+     * @param local          this node
+     * @param dao            local storage
+     * @param topology       initial topology
+     * @param replicas       the replication factor
+     * @param bytesPerSecond streaming throttle
+     * @param batchBytes     max size of a streamed batch
+     */
+    public Rebalancer(
+            @NotNull final String local,
+            @NotNull final DAO dao,
+            @NotNull final Topology topology,
+            final int replicas,
+            final long bytesPerSecond,
+            final int batchBytes) {
+        if (bytesPerSecond <= 0 || batchBytes <= 0) {
+            throw new IllegalArgumentException("Non-positive throttle");
+        }
+        this.local = local;
+        this.dao = dao;
+        this.current = topology;
+        this.replicas = replicas;
+        this.throttle = RateLimiter.create(bytesPerSecond);
+        this.batchBytes = batchBytes;
+    }
+
+    @NotNull
+    public Topology topology() {
+        return current;
+    }
+
+    /**
+     * Replicas to read the key from.
+     */
+    @NotNull
+    public List<String> readReplicas(@NotNull final ByteBuffer key) {
+        return current.replicasFor(key, replicas);
+    }
+
+    /**
+     * Replicas to write the key to including the joining node if needed.
+     */
+    @NotNull
+    public Set<String> writeReplicas(@NotNull final ByteBuffer key) {
+        final Set<String> result = new LinkedHashSet<>(current.replicasFor(key, replicas));
+        final Topology pending = next;
+        if (pending != null) {
+            result.addAll(pending.replicasFor(key, replicas));
+        }
+        return result;
+    }
+
+    /**
+     * Switches to dual writes towards the joining node.
+     * Must be called on every node before {@link #stream(Sink)}.
+     */
+    public synchronized void beginJoin(@NotNull final String node) {
+        if (next != null) {
+            throw new IllegalStateException("Another node is joining");
+        }
+        next = current.withNode(node);
+    }
+
+    /**
+     * Makes the joined node serve the reads.
+     */
+    public synchronized void completeJoin() {
+        final Topology pending = next;
+        if (pending == null) {
+            throw new IllegalStateException("No node is joining");
+        }
+        current = pending;
+        next = null;
+    }
+
+    /**
+     * Streams the local records moving to the joining node.
+     * Serving goes on, the throttle bounds the impact on it.
+     *
+     * @return the number of streamed records
+     */
+    public long stream(@NotNull final Sink sink) throws IOException {
+        final Topology from = current;
+        final Topology to = next;
+        if (to == null) {
+            throw new IllegalStateException("No node is joining");
+        }
+
+        long streamed = 0;
+        final List<Record> batch = new ArrayList<>();
+        int size = 0;
+        final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+        while (records.hasNext()) {
+            final Record record = records.next();
+            final ByteBuffer key = record.getKey();
+            if (!moves(from, to, key)) {
+                continue;
+            }
+
+            batch.add(record);
+            size += key.remaining() + record.getValue().remaining();
+            if (size >= batchBytes) {
+                send(sink, batch, size);
+                streamed += batch.size();
+                batch.clear();
+                size = 0;
+            }
+        }
+        if (!batch.isEmpty()) {
+            send(sink, batch, size);
+            streamed += batch.size();
+        }
+
+        log.info("Streamed {} records to join {}", streamed, to);
+        return streamed;
+    }
+
+    private boolean moves(
+            @NotNull final Topology from,
+            @NotNull final Topology to,
+            @NotNull final ByteBuffer key) {
+        // Exactly one of the current owners streams the key
+        return local.equals(from.primaryFor(key))
+                && !from.replicasFor(key, replicas).equals(to.replicasFor(key, replicas));
+    }
+
+    private void send(
+            @NotNull final Sink sink,
+            @NotNull final List<Record> batch,
+            final int size) throws IOException {
+        throttle.acquire(Math.max(1, size));
+        sink.accept(batch);
+    }
+
+    /**
+     * Applies the streamed records on the joining node without overwriting the dual writes.
+     * <p>
+     * The records carry no versions, so a streamed record is applied only if the key is absent
+     * and hasn't been removed by a dual write since the receiver was created, see {@link #remove(ByteBuffer)}.
+     * The storage must be empty at start, otherwise its stale records would be kept and the keys
+     * removed before the streaming, which is not streamed, would come back.
+     */
+    public static final class Receiver implements Sink {
+        private final DAO dao;
+        private final KeyLocks locks = new KeyLocks(1024);
+        private final Set<ByteBuffer> removed = ConcurrentHashMap.newKeySet();
+
+        /**
+         * @param dao the empty storage of the joining node
+         * @throws IllegalStateException if the storage is not empty, e.g. of a node joining again
+         */
+        public Receiver(@NotNull final DAO dao) throws IOException {
+            if (dao.iterator(ByteBuffer.allocate(0)).hasNext()) {
+                throw new IllegalStateException("Joining node must start empty");
+            }
+            this.dao = dao;
+        }
+
+        @Override
+        public void accept(@NotNull final List<Record> batch) throws IOException {
+            for (final Record record : batch) {
+                final ByteBuffer key = record.getKey();
+                final Lock lock = locks.get(key);
+                lock.lock();
+                try {
+                    if (!removed.contains(key)) {
+                        // A dual write is newer than the streamed snapshot
+                        dao.compareAndSet(key, null, record.getValue());
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Applies a remove dual-written to the joining node while the records are streamed.
+         */
+        public void remove(@NotNull final ByteBuffer key) throws IOException {
+            final Lock lock = locks.get(key);
+            lock.lock();
+            try {
+                removed.add(copy(key));
+                dao.remove(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @NotNull
+        private static ByteBuffer copy(@NotNull final ByteBuffer buffer) {
+            final ByteBuffer result = ByteBuffer.allocate(buffer.remaining());
+            result.put(buffer.duplicate());
+            result.rewind();
+            return result;
+        }
+    }
+
+    /**
+     * Receives the streamed records, e.g. sends them to the {@link Receiver} of the joining node.
+     */
+    @FunctionalInterface
+    public interface Sink {
+        void accept(@NotNull List<Record> batch) throws IOException;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import org.jetbrains.annotations.NotNull;
+
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.WriteBatch;
+
+/**
+ * Serialized sequence of replica operations sent to a peer in one request.
+ * <p>
+ * Format: {@code (op:byte, keyLength:int, key, [valueLength:int, value])*}.
+ *
+ * @author IgorLo
+ */
+final class ReplicaBatch {
+    private static final byte UPSERT = 1;
+    private static final byte REMOVE = 2;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private int count;
+
+    void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        out.write(UPSERT);
+        write(key);
+        write(value);
+        count++;
+    }
+
+    void remove(@NotNull final ByteBuffer key) {
+        out.write(REMOVE);
+        write(key);
+        count++;
+    }
+
+    int size() {
+        return out.size();
+    }
+
+    int count() {
+        return count;
+    }
+
+    @NotNull
+    byte[] toBytes() {
+        return out.toByteArray();
+    }
+
+    private void write(@NotNull final ByteBuffer buffer) {
+        final ByteBuffer src = buffer.duplicate();
+        final int length = src.remaining();
+        out.write(length >>> 24);
+        out.write(length >>> 16);
+        out.write(length >>> 8);
+        out.write(length);
+        if (src.hasArray()) {
+            out.write(src.array(), src.arrayOffset() + src.position(), length);
+        } else {
+            final byte[] bytes = new byte[length];
+            src.get(bytes);
+            out.write(bytes, 0, length);
+        }
+    }
+
+    /**
+     * Applies the serialized operations to the storage as a single {@link WriteBatch}.
+     *
+     * @return the number of applied operations
+     * @throws IllegalArgumentException if the batch is malformed
+     */
+    static int apply(
+            @NotNull final byte[] batch,
+            @NotNull final DAO dao) throws IOException {
+        final ByteBuffer in = ByteBuffer.wrap(batch);
+        final WriteBatch operations = new WriteBatch();
+        try {
+            while (in.hasRemaining()) {
+                final byte op = in.get();
+                final ByteBuffer key = read(in);
+                switch (op) {
+                    case UPSERT:
+                        operations.upsert(key, read(in));
+                        break;
+                    case REMOVE:
+                        operations.remove(key);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown operation " + op);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated batch", e);
+        }
+        // Nothing is applied from a malformed batch
+        dao.write(operations);
+        return operations.size();
+    }
+
+    @NotNull
+    private static ByteBuffer read(@NotNull final ByteBuffer in) {
+        final int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final ByteBuffer result = in.slice();
+        result.limit(length);
+        in.position(in.position() + length);
+        return result;
+    }
+}
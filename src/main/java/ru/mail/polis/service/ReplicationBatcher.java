@@ -0,0 +1,219 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ru.mail.polis.dao.DAO;
+
+/**
+ * Coalesces replica writes headed for the same peer.
+ * <p>
+ * Operations are accumulated per peer and sent as a single {@code PUT /v0/batch}
+ * (see {@link #PATH}) once the batch reaches the size cap or the window since
+ * its first operation elapses, whichever comes first. The batches of a peer are sent
+ * one at a time in order, each after the previous one is acknowledged or failed.
+ * The receiving node passes the request body to {@link #apply(byte[], DAO)}.
+ *
+ * @author IgorLo
+ */
+public final class ReplicationBatcher {
+    public static final String PATH = "/v0/batch";
+
+    private final Transport transport;
+    private final ScheduledExecutorService scheduler;
+    private final long windowMicros;
+    private final int maxBytes;
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+
+    /**
+     * @param transport    sends a serialized batch to a peer
+     * @param scheduler    executor to flush the batches by the window
+     * @param windowMicros max delay of an operation in the batch
+     * @param maxBytes     size cap of a batch
+     */
+    public ReplicationBatcher(
+            @NotNull final Transport transport,
+            @NotNull final ScheduledExecutorService scheduler,
+            final long windowMicros,
+            final int maxBytes) {
+        if (windowMicros <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Non-positive batching limits");
+        }
+        this.transport = transport;
+        this.scheduler = scheduler;
+        this.windowMicros = windowMicros;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Enqueues upsert of the key on the peer.
+     *
+     * @return completes when the batch is acknowledged by the peer
+     */
+    @NotNull
+    public CompletableFuture<Void> upsert(
+            @NotNull final String peer,
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        return pending.computeIfAbsent(peer, Pending::new).add(key, value);
+    }
+
+    /**
+     * Enqueues removal of the key on the peer.
+     *
+     * @return completes when the batch is acknowledged by the peer
+     */
+    @NotNull
+    public CompletableFuture<Void> remove(
+            @NotNull final String peer,
+            @NotNull final ByteBuffer key) {
+        return pending.computeIfAbsent(peer, Pending::new).add(key, null);
+    }
+
+    /**
+     * Sends all the accumulated batches right away.
+     */
+    public void flush() {
+        for (final Pending peer : pending.values()) {
+            peer.flush(-1L);
+        }
+    }
+
+    /**
+     * Applies a batch received from a coordinator.
+     *
+     * @return the number of applied operations
+     * @throws IllegalArgumentException if the batch is malformed
+     */
+    public static int apply(
+            @NotNull final byte[] batch,
+            @NotNull final DAO dao) throws IOException {
+        return ReplicaBatch.apply(batch, dao);
+    }
+
+    /**
+     * Delivers batches to the peers, e.g. with one-nio {@code HttpClient}.
+     * Batches of the same peer must be applied in the order they are sent.
+     */
+    @FunctionalInterface
+    public interface Transport {
+        @NotNull
+        CompletableFuture<?> send(
+                @NotNull String peer,
+                @NotNull byte[] batch);
+    }
+
+    private final class Pending {
+        private final String peer;
+        private ReplicaBatch batch = new ReplicaBatch();
+        private List<CompletableFuture<Void>> waiters = new ArrayList<>();
+        private long generation;
+        // Completes once the last taken batch is acknowledged or failed
+        private CompletableFuture<?> last = CompletableFuture.completedFuture(null);
+
+        Pending(@NotNull final String peer) {
+            this.peer = peer;
+        }
+
+        @NotNull
+        CompletableFuture<Void> add(
+                @NotNull final ByteBuffer key,
+                @Nullable final ByteBuffer value) {
+            final CompletableFuture<Void> result = new CompletableFuture<>();
+            final boolean full;
+            synchronized (this) {
+                if (batch.count() == 0) {
+                    final long scheduled = generation;
+                    scheduler.schedule(() -> flush(scheduled), windowMicros, TimeUnit.MICROSECONDS);
+                }
+                if (value == null) {
+                    batch.remove(key);
+                } else {
+                    batch.upsert(key, value);
+                }
+                waiters.add(result);
+                full = batch.size() >= maxBytes;
+            }
+            if (full) {
+                flush(-1L);
+            }
+            return result;
+        }
+
+        /**
+         * @param expected generation of the batch to flush or {@code -1} for any
+         */
+        void flush(final long expected) {
+            final byte[] body;
+            final List<CompletableFuture<Void>> acknowledged;
+            final CompletableFuture<?> previous;
+            final CompletableFuture<Void> done = new CompletableFuture<>();
+            synchronized (this) {
+                if (batch.count() == 0 || (expected >= 0 && expected != generation)) {
+                    // Already flushed by size
+                    return;
+                }
+                body = batch.toBytes();
+                acknowledged = waiters;
+                batch = new ReplicaBatch();
+                waiters = new ArrayList<>();
+                generation++;
+                // Taken in order under the lock, so sent in order
+                previous = last;
+                last = done;
+            }
+
+            previous.whenComplete((ignored, error) -> send(body, acknowledged, done));
+        }
+
+        private void send(
+                @NotNull final byte[] body,
+                @NotNull final List<CompletableFuture<Void>> acknowledged,
+                @NotNull final CompletableFuture<Void> done) {
+            final CompletableFuture<?> sent;
+            try {
+                sent = transport.send(peer, body);
+            } catch (RuntimeException e) {
+                acknowledged.forEach(w -> w.completeExceptionally(e));
+                done.complete(null);
+                return;
+            }
+            sent.whenComplete((ignored, error) -> {
+                for (final CompletableFuture<Void> waiter : acknowledged) {
+                    if (error == null) {
+                        waiter.complete(null);
+                    } else {
+                        waiter.completeExceptionally(error);
+                    }
+                }
+                done.complete(null);
+            });
+        }
+    }
+}
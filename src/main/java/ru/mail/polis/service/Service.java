@@ -22,9 +22,28 @@ package ru.mail.polis.service;
  * The following HTTP protocol is supported:
  * <ul>
  * <li>{@code GET /v0/status} -- returns {@code 200} or {@code 503}</li>
- * <li>{@code GET /v0/entity?id=<ID>} -- get data by {@code ID}. Returns {@code 200} and data if found, {@code 404} if not found.</li>
- * <li>{@code PUT /v0/entity?id=<ID>} -- upsert (create or replace) data by {@code ID}. Returns {@code 201}.</li>
+ * <li>{@code GET /v0/entity?id=<ID>} -- get data by {@code ID}. Returns {@code 200} and data
+ * with {@code ETag} header if found, {@code 404} if not found.</li>
+ * <li>{@code PUT /v0/entity?id=<ID>} -- upsert (create or replace) data by {@code ID}. Returns {@code 201}.
+ * With {@code X-TTL: <seconds>} header the data expires after the given time (see {@link TtlHeader}),
+ * {@code 501} is returned if the storage doesn't support TTL.</li>
  * <li>{@code DELETE /v0/entity?id=<ID>} -- remove data by {@code ID}. Returns {@code 202}.</li>
+ * <li>{@code PUT} and {@code DELETE} of {@code /v0/entity} with {@code If-Match: <ETag>} or
+ * {@code If-None-Match: *} headers write only if the current data matches (see {@link EntityTags}).
+ * Return {@code 412} otherwise.</li>
+ * <li>{@code GET /v0/entities?start=<ID>[&end=<ID>][&reverse=true]} -- stream the data from {@code start}
+ * (inclusive) until {@code end} (exclusive) in ascending or, with {@code reverse=true}, descending key order
+ * as chunks of {@code <ID>\n<data>} (see {@link ru.mail.polis.dao.DAO#descendingRange}). Returns {@code 200}.</li>
+ * <li>{@code DELETE /v0/entities?start=<ID>[&end=<ID>]} -- remove all the data from {@code start} (inclusive)
+ * until {@code end} (exclusive) or until the end of the key space with a range tombstone. Returns {@code 202}.</li>
+ * <li>{@code GET /v0/metrics} -- request and storage metrics in Prometheus text format (see {@link ServiceMetrics}).
+ * Returns {@code 200}.</li>
+ * <li>{@code GET /v0/admin/estimate?start=<ID>[&end=<ID>]} -- approximate number of keys and bytes
+ * from {@code start} (inclusive) until {@code end} (exclusive) as {@code <keys> <keys error> <bytes> <bytes error>}
+ * (see {@link ru.mail.polis.dao.DAO#estimate}). Returns {@code 200}.</li>
+ * <li>{@code PUT /v0/admin/snapshot?name=<NAME>} -- snapshot the storage by hard linking its tables
+ * (see {@link Snapshots}). Returns {@code 201}, {@code 409} if the snapshot exists
+ * and {@code 501} if the storage can't make snapshots.</li>
  * </ul>
  * <p>
  * {@code ID} is a non empty char sequence.
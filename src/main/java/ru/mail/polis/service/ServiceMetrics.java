@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import one.nio.http.Request;
+import ru.mail.polis.Prometheus;
+import ru.mail.polis.dao.StorageMetrics;
+
+/**
+ * Request metrics of a {@link Service} exposed via {@code GET /v0/metrics}.
+ * <p>
+ * {@link #record(int, int, long)} only increments preallocated counters,
+ * so it is cheap enough to be called for every request.
+ *
+ * @author IgorLo
+ */
+public final class ServiceMetrics {
+    public static final String PATH = "/v0/metrics";
+
+    private static final String[] METHODS = {"GET", "PUT", "DELETE", "POST", "HEAD", "OPTIONS", "OTHER"};
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double MICROS_PER_SECOND = TimeUnit.SECONDS.toMicros(1);
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[METHODS.length];
+    private final LongAdder[] clientErrors = new LongAdder[METHODS.length];
+    private final LongAdder[] serverErrors = new LongAdder[METHODS.length];
+    private final List<Consumer<StringBuilder>> extensions = new ArrayList<>();
+
+    public ServiceMetrics() {
+        for (int i = 0; i < METHODS.length; i++) {
+            latencies[i] = new LatencyHistogram();
+            clientErrors[i] = new LongAdder();
+            serverErrors[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a served request.
+     *
+     * @param method one of {@code Request.METHOD_*}
+     * @param status HTTP status code of the response
+     * @param nanos  time to serve the request
+     */
+    public void record(
+            final int method,
+            final int status,
+            final long nanos) {
+        final int slot = slot(method);
+        latencies[slot].record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (status >= 500) {
+            serverErrors[slot].increment();
+        } else if (status >= 400) {
+            clientErrors[slot].increment();
+        }
+    }
+
+    /**
+     * Adds metrics of another component, e.g. {@link HedgedReads#writeTo(StringBuilder)}.
+     * Must be called before the service starts.
+     */
+    public void extend(@NotNull final Consumer<StringBuilder> extension) {
+        extensions.add(extension);
+    }
+
+    /**
+     * Renders the metrics in Prometheus text format.
+     *
+     * @param storage storage engine metrics if available
+     */
+    @NotNull
+    public String render(@Nullable final StorageMetrics storage) {
+        final StringBuilder out = new StringBuilder(4096);
+
+        final String latency = "http_request_duration_seconds";
+        Prometheus.family(out, latency, "summary", "Request latency by method");
+        for (int i = 0; i < METHODS.length; i++) {
+            final LatencyHistogram histogram = latencies[i];
+            final long count = histogram.count();
+            if (count == 0) {
+                continue;
+            }
+            final String method = "method=\"" + METHODS[i] + '"';
+            for (final double quantile : QUANTILES) {
+                Prometheus.sample(out, latency, method + ",quantile=\"" + quantile + '"',
+                        histogram.percentile(quantile) / MICROS_PER_SECOND);
+            }
+            Prometheus.sample(out, latency + "_sum", method, histogram.sum() / MICROS_PER_SECOND);
+            Prometheus.sample(out, latency + "_count", method, count);
+        }
+
+        final String errors = "http_request_errors_total";
+        Prometheus.family(out, errors, "counter", "Error responses by method and status class");
+        for (int i = 0; i < METHODS.length; i++) {
+            final String method = "method=\"" + METHODS[i] + '"';
+            final long client = clientErrors[i].sum();
+            final long server = serverErrors[i].sum();
+            if (client > 0) {
+                Prometheus.sample(out, errors, method + ",class=\"4xx\"", client);
+            }
+            if (server > 0) {
+                Prometheus.sample(out, errors, method + ",class=\"5xx\"", server);
+            }
+        }
+
+        if (storage != null) {
+            storage.writeTo(out);
+        }
+        for (final Consumer<StringBuilder> extension : extensions) {
+            extension.accept(out);
+        }
+        return out.toString();
+    }
+
+    private static int slot(final int method) {
+        switch (method) {
+            case Request.METHOD_GET:
+                return 0;
+            case Request.METHOD_PUT:
+                return 1;
+            case Request.METHOD_DELETE:
+                return 2;
+            case Request.METHOD_POST:
+                return 3;
+            case Request.METHOD_HEAD:
+                return 4;
+            case Request.METHOD_OPTIONS:
+                return 5;
+            default:
+                return METHODS.length - 1;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event for the requests served slower than the threshold.
+ * <p>
+ * The service calls {@code begin()} when a request arrives and {@code end()} once
+ * the response is sent, then fills in the fields and calls {@code commit()} if
+ * {@code shouldCommit()} returns {@code true}, i.e. the request took longer than
+ * the threshold and the event is enabled:
+ * <pre>{@code
+ * final SlowRequestEvent event = new SlowRequestEvent();
+ * event.begin();
+ * // Serve the request
+ * event.end();
+ * if (event.shouldCommit()) {
+ *     event.method = ...;
+ *     event.commit();
+ * }
+ * }</pre>
+ * Nothing is recorded without {@code commit()}. The default {@value #THRESHOLD}
+ * may be overridden with {@code ru.mail.polis.SlowRequest#threshold} in a JFR settings file.
+ *
+ * @author IgorLo
+ */
+@Name("ru.mail.polis.SlowRequest")
+@Label("Slow Request")
+@Category({"Highload DHT", "Service"})
+@Description("HTTP request served slower than the threshold")
+@Threshold(SlowRequestEvent.THRESHOLD)
+@StackTrace(false)
+public final class SlowRequestEvent extends jdk.jfr.Event {
+    static final String THRESHOLD = "100 ms";
+
+    @Label("Method")
+    public String method;
+
+    @Label("URI")
+    public String uri;
+
+    @Label("Status")
+    public int status;
+
+    @Label("Response Size")
+    @DataAmount
+    public long bytes;
+}
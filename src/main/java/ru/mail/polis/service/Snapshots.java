@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.NotNull;
+
+import ru.mail.polis.Files;
+import ru.mail.polis.dao.DAO;
+
+/**
+ * Handles {@code PUT /v0/admin/snapshot?name=<NAME>} (see {@link #PATH})
+ * making named snapshots of the storage under the snapshot root.
+ * A snapshot is built in a temporary directory and moved into place when complete,
+ * so a failed one leaves nothing behind and may be retried.
+ * <p>
+ * The service maps {@link IllegalArgumentException} to {@code 400},
+ * {@link FileAlreadyExistsException} to {@code 409} and
+ * {@link UnsupportedOperationException} to {@code 501}.
+ *
+ * @author IgorLo
+ */
+public final class Snapshots {
+    public static final String PATH = "/v0/admin/snapshot";
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_.-]{1,64}");
+
+    private final File root;
+    private final DAO dao;
+
+    /**
+     * @param root directory to keep the snapshots in, on the same file system as the storage
+     * @param dao  the storage
+     */
+    public Snapshots(
+            @NotNull final File root,
+            @NotNull final DAO dao) {
+        this.root = root;
+        this.dao = dao;
+    }
+
+    /**
+     * Makes a snapshot with the given name.
+     *
+     * @return the snapshot directory
+     * @throws IllegalArgumentException   if the name is not a plain file name
+     * @throws FileAlreadyExistsException if the snapshot already exists
+     */
+    @NotNull
+    public synchronized File take(@NotNull final String name) throws IOException {
+        if (!NAME.matcher(name).matches() || name.startsWith(".")) {
+            throw new IllegalArgumentException("Bad snapshot name: " + name);
+        }
+        final File destination = new File(root, name);
+        if (destination.exists()) {
+            throw new FileAlreadyExistsException(destination.toString());
+        }
+        java.nio.file.Files.createDirectories(root.toPath());
+        // Valid names never start with a dot, so the partial snapshot can't be taken for a complete one
+        final File temp = new File(root, "." + name + ".tmp");
+        if (temp.exists()) {
+            Files.recursiveDelete(temp);
+        }
+        try {
+            dao.snapshot(temp);
+            java.nio.file.Files.move(temp.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            if (temp.exists()) {
+                Files.recursiveDelete(temp);
+            }
+            throw e;
+        }
+        Files.syncDirectory(root);
+        return destination;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Immutable consistent hashing ring of cluster nodes.
+ * <p>
+ * Every node owns {@link #VNODES} tokens, so adding a node moves
+ * roughly {@code 1 / size()} of the keys to it from all the other nodes
+ * while the rest of the keys stay in place.
+ *
+ * @author IgorLo
+ */
+public final class Topology {
+    static final int VNODES = 64;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final Set<String> nodes;
+    private final NavigableMap<Long, String> ring;
+
+    /**
+     * @param nodes cluster node endpoints, e.g. {@code http://localhost:8080}
+     */
+    public Topology(@NotNull final Collection<String> nodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Empty topology");
+        }
+        this.nodes = Collections.unmodifiableSet(new LinkedHashSet<>(nodes));
+        this.ring = new TreeMap<>();
+        for (final String node : this.nodes) {
+            for (int i = 0; i < VNODES; i++) {
+                final long token = HASH.hashString(node + '#' + i, StandardCharsets.UTF_8).asLong();
+                ring.put(token, node);
+            }
+        }
+    }
+
+    @NotNull
+    public Set<String> nodes() {
+        return nodes;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Creates a topology with one more node.
+     */
+    @NotNull
+    public Topology withNode(@NotNull final String node) {
+        if (nodes.contains(node)) {
+            throw new IllegalArgumentException("Node " + node + " is already in the topology");
+        }
+        final List<String> result = new ArrayList<>(nodes);
+        result.add(node);
+        return new Topology(result);
+    }
+
+    @NotNull
+    public String primaryFor(@NotNull final ByteBuffer key) {
+        return replicasFor(key, 1).get(0);
+    }
+
+    /**
+     * Obtains distinct nodes responsible for the key walking the ring clockwise.
+     *
+     * @param count the replication factor
+     */
+    @NotNull
+    public List<String> replicasFor(
+            @NotNull final ByteBuffer key,
+            final int count) {
+        if (count <= 0 || count > nodes.size()) {
+            throw new IllegalArgumentException("Wrong replica count " + count + " for " + nodes.size() + " nodes");
+        }
+
+        final long token = HASH.hashBytes(key.duplicate()).asLong();
+        final List<String> result = new ArrayList<>(count);
+        final Iterator<Map.Entry<Long, String>> tail = ring.tailMap(token, true).entrySet().iterator();
+        final Iterator<Map.Entry<Long, String>> head = ring.headMap(token, false).entrySet().iterator();
+        while (result.size() < count) {
+            final String node = tail.hasNext() ? tail.next().getValue() : head.next().getValue();
+            if (!result.contains(node)) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return nodes.toString();
+    }
+}
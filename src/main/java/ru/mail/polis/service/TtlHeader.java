@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import java.time.Duration;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The {@code X-TTL: <seconds>} header of {@code PUT /v0/entity} making the value expire.
+ * <p>
+ * The service passes {@code request.getHeader(TtlHeader.HEADER)} to {@link #parse(String)}
+ * and upserts with {@link ru.mail.polis.dao.DAO#upsert(java.nio.ByteBuffer, java.nio.ByteBuffer, Duration)}
+ * if a TTL is given.
+ *
+ * @author IgorLo
+ */
+public final class TtlHeader {
+    /**
+     * Header prefix in one-nio {@code Request#getHeader(String)} convention.
+     */
+    public static final String HEADER = "X-TTL: ";
+
+    private TtlHeader() {
+        // Not instantiable
+    }
+
+    /**
+     * Parses the header value.
+     *
+     * @return {@code null} if there is no header
+     * @throws IllegalArgumentException if the value is not a positive number of seconds
+     */
+    @Nullable
+    public static Duration parse(@Nullable final String value) {
+        if (value == null) {
+            return null;
+        }
+        final long seconds;
+        try {
+            seconds = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad TTL: " + value, e);
+        }
+        if (seconds <= 0) {
+            throw new IllegalArgumentException("Non-positive TTL: " + value);
+        }
+        return Duration.ofSeconds(seconds);
+    }
+
+    /**
+     * Formats the header value for a client.
+     */
+    @NotNull
+    public static String format(@NotNull final Duration ttl) {
+        return Long.toString(Math.max(1L, ttl.getSeconds()));
+    }
+}
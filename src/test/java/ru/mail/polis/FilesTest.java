@@ -21,8 +21,13 @@ import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -45,4 +50,53 @@ class FilesTest {
         Files.recursiveDelete(dir);
         assertFalse(dir.exists());
     }
+
+    @Test
+    void hardLink() throws IOException {
+        final File dir = Files.createTempDirectory();
+        final File source = new File(dir, "source");
+        assertTrue(new File(source, "nested").mkdirs());
+        java.nio.file.Files.write(new File(source, "table").toPath(), new byte[]{1, 2, 3});
+        java.nio.file.Files.write(new File(source, "nested/table").toPath(), new byte[]{4});
+
+        final File target = new File(dir, "target");
+        assertEquals(2, Files.hardLink(source, target));
+        assertArrayEquals(
+                new byte[]{1, 2, 3},
+                java.nio.file.Files.readAllBytes(new File(target, "table").toPath()));
+        assertArrayEquals(
+                new byte[]{4},
+                java.nio.file.Files.readAllBytes(new File(target, "nested/table").toPath()));
+
+        // The snapshot survives removal of the source
+        Files.recursiveDelete(source);
+        assertEquals(4, Files.directorySize(target));
+
+        assertThrows(IOException.class, () -> Files.hardLink(target, target));
+        Files.recursiveDelete(dir);
+    }
+
+    @Test
+    void hardLinkCopiesMutable() throws IOException {
+        final File dir = Files.createTempDirectory();
+        final File source = new File(dir, "source");
+        assertTrue(source.mkdirs());
+        final Path table = new File(source, "table").toPath();
+        final Path log = new File(source, "MANIFEST").toPath();
+        java.nio.file.Files.write(table, new byte[]{1, 2, 3});
+        java.nio.file.Files.write(log, new byte[]{4});
+
+        final File target = new File(dir, "target");
+        assertEquals(1, Files.hardLink(source, target, file -> !file.toString().equals("MANIFEST")));
+
+        // Appending to the source log doesn't leak into the copy
+        java.nio.file.Files.write(log, new byte[]{5}, StandardOpenOption.APPEND);
+        assertArrayEquals(
+                new byte[]{4},
+                java.nio.file.Files.readAllBytes(new File(target, "MANIFEST").toPath()));
+        assertArrayEquals(
+                new byte[]{1, 2, 3},
+                java.nio.file.Files.readAllBytes(new File(target, "table").toPath()));
+        Files.recursiveDelete(dir);
+    }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.BulkLoad;
+import ru.mail.polis.Record;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit tests for {@link DAO#bulkLoad(java.util.Iterator)} and the {@link BulkLoad} dump format.
+ *
+ * @author IgorLo
+ */
+class BulkLoadTest {
+    @Test
+    void sorted() throws IOException {
+        final List<Record> records = ImmutableList.of(record(1, 10), record(2, 20), record(3, 30));
+        try (DAO dao = new TreeMapDAO()) {
+            dao.bulkLoad(records.iterator());
+            assertEquals(records, ImmutableList.copyOf(dao.iterator(ByteBuffer.allocate(0))));
+        }
+    }
+
+    @Test
+    void unsorted() throws IOException {
+        try (DAO dao = new TreeMapDAO()) {
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> dao.bulkLoad(ImmutableList.of(record(1, 1), record(3, 3), record(2, 2)).iterator()));
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> dao.bulkLoad(ImmutableList.of(record(1, 1), record(1, 2)).iterator()));
+        }
+    }
+
+    @Test
+    void dump() throws IOException {
+        final List<Record> records = ImmutableList.of(record(1, 10), record(2, 20));
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (final Record record : records) {
+                BulkLoad.write(out, record);
+            }
+        }
+        final byte[] dump = bytes.toByteArray();
+
+        assertEquals(records, ImmutableList.copyOf(BulkLoad.read(in(dump))));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> Iterators.size(BulkLoad.read(in(Arrays.copyOf(dump, dump.length - 1)))));
+    }
+
+    private static DataInputStream in(final byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    private static Record record(
+            final int key,
+            final int value) {
+        return Record.of(
+                ByteBuffer.allocate(Integer.BYTES).putInt(0, key),
+                ByteBuffer.allocate(Integer.BYTES).putInt(0, value));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit tests for {@link DescendingIterator}.
+ *
+ * @author IgorLo
+ */
+class DescendingIteratorTest {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    @Test
+    void chunks() throws IOException {
+        final DAO dao = new TreeMapDAO();
+        for (int i = 1; i <= 10; i++) {
+            dao.upsert(buffer(i), buffer(i * 10));
+        }
+
+        for (int chunk = 1; chunk <= 12; chunk++) {
+            assertEquals(
+                    ImmutableList.of(8, 7, 6, 5, 4, 3, 2),
+                    keys(new DescendingIterator(dao, buffer(2), buffer(9), chunk)),
+                    "Chunk " + chunk);
+            assertEquals(10, keys(new DescendingIterator(dao, EMPTY, null, chunk)).size());
+        }
+        assertFalse(new DescendingIterator(dao, buffer(11), null, 3).hasNext());
+        assertThrows(NoSuchElementException.class, () -> new DescendingIterator(dao, buffer(5), buffer(5), 3).next());
+    }
+
+    @Test
+    void latest() throws IOException {
+        final DAO dao = new TreeMapDAO();
+        final int count = 3 * DescendingIterator.CHUNK + 1;
+        for (int i = 0; i < count; i++) {
+            dao.upsert(key(i), buffer(i));
+        }
+        final Iterator<Record> records = dao.descendingRange(EMPTY, null);
+        for (int i = count - 1; i >= 0; i--) {
+            assertEquals(Record.of(key(i), buffer(i)), records.next());
+        }
+        assertFalse(records.hasNext());
+    }
+
+    @Test
+    void segments() throws IOException {
+        final AtomicInteger scanned = new AtomicInteger();
+        final DAO dao = new TreeMapDAO() {
+            @NotNull
+            @Override
+            public Iterator<Record> iterator(@NotNull final ByteBuffer from) {
+                return Iterators.transform(super.iterator(from), r -> {
+                    scanned.incrementAndGet();
+                    return r;
+                });
+            }
+
+            @NotNull
+            @Override
+            public List<ByteBuffer> splitPoints(
+                    @NotNull final ByteBuffer from,
+                    final ByteBuffer to,
+                    final int parts) {
+                final List<ByteBuffer> result = new ArrayList<>();
+                for (int i = 100; i < 1000; i += 100) {
+                    result.add(key(i));
+                }
+                return result;
+            }
+        };
+        for (int i = 0; i < 1000; i++) {
+            dao.upsert(key(i), buffer(i));
+        }
+
+        // The latest records before a key come from the last segment only
+        final Iterator<Record> latest = dao.descendingRange(EMPTY, key(950));
+        assertEquals(Record.of(key(949), buffer(949)), latest.next());
+        assertEquals(51, scanned.get());
+
+        final Iterator<Record> records = new DescendingIterator(dao, key(50), null, 30);
+        for (int i = 999; i >= 50; i--) {
+            assertEquals(Record.of(key(i), buffer(i)), records.next());
+        }
+        assertFalse(records.hasNext());
+    }
+
+    private static List<Integer> keys(final Iterator<Record> records) {
+        final List<Integer> result = new ArrayList<>();
+        records.forEachRemaining(r -> result.add(r.getKey().getInt(0)));
+        return result;
+    }
+
+    /**
+     * ByteBuffer compares signed bytes, so the keys beyond 127 are spelled out.
+     */
+    private static ByteBuffer key(final int value) {
+        return ByteBuffer.wrap(String.format("%05d", value).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer buffer(final int value) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, value);
+    }
+}
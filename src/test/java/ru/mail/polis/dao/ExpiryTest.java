@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link Expiry}.
+ *
+ * @author IgorLo
+ */
+class ExpiryTest {
+    @Test
+    void wrap() {
+        final ByteBuffer value = ByteBuffer.wrap("session".getBytes(StandardCharsets.UTF_8));
+        final long expiresAt = Expiry.expiresAt(Duration.ofSeconds(30), 1_000L);
+        assertEquals(31_000L, expiresAt);
+
+        final ByteBuffer stored = Expiry.wrap(value, expiresAt);
+        assertEquals(expiresAt, Expiry.expiresAt(stored));
+        assertEquals(value, Expiry.value(stored));
+        assertFalse(Expiry.isExpired(stored, 30_999L));
+        assertTrue(Expiry.isExpired(stored, 31_000L));
+    }
+
+    @Test
+    void never() {
+        final ByteBuffer stored = Expiry.wrap(ByteBuffer.allocate(0), Expiry.NEVER);
+        assertFalse(Expiry.isExpired(stored, Long.MAX_VALUE - 1));
+        assertEquals(Expiry.NEVER, Expiry.expiresAt(Duration.ofMillis(Long.MAX_VALUE), 1_000L));
+    }
+
+    @Test
+    void nonPositive() {
+        assertThrows(IllegalArgumentException.class, () -> Expiry.expiresAt(Duration.ZERO, 0L));
+        assertThrows(IllegalArgumentException.class, () -> Expiry.expiresAt(Duration.ofSeconds(-1), 0L));
+        assertThrows(
+                UnsupportedOperationException.class,
+                () -> new TreeMapDAO().upsert(ByteBuffer.allocate(1), ByteBuffer.allocate(1), Duration.ofSeconds(1)));
+    }
+}
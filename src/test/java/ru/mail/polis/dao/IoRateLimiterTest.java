@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link IoRateLimiter}.
+ *
+ * @author IgorLo
+ */
+class IoRateLimiterTest {
+    private static final long MB = 1L << 20;
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong latency = new AtomicLong();
+    private final AtomicInteger queue = new AtomicInteger();
+
+    private IoRateLimiter limiter() {
+        return new IoRateLimiter(MB, 16 * MB, 10_000, latency::get, queue::get, 100, clock::get);
+    }
+
+    @Test
+    void tokenBucket() {
+        final IoRateLimiter limiter = limiter();
+        // A second of burst is available
+        assertEquals(0L, limiter.reserve((int) (16 * MB), false));
+        // The bucket is empty but not in debt
+        assertEquals(0L, limiter.reserve((int) (8 * MB), false));
+        // Half a second to pay off the debt
+        assertEquals(SECOND / 2, limiter.reserve(1, false));
+
+        clock.addAndGet(SECOND / 2);
+        assertEquals(0L, limiter.reserve(1, false));
+    }
+
+    @Test
+    void urgentNeverWaits() {
+        final IoRateLimiter limiter = limiter();
+        assertEquals(0L, limiter.reserve((int) (32 * MB), true));
+        assertEquals(0L, limiter.reserve((int) (32 * MB), true));
+        // Compaction pays for the flush
+        assertEquals(3 * SECOND, limiter.reserve(1, false));
+    }
+
+    @Test
+    void adapts() {
+        final IoRateLimiter limiter = limiter();
+        assertEquals(16 * MB, limiter.rate());
+
+        latency.set(50_000);
+        limiter.adjust();
+        assertEquals(8 * MB, limiter.rate());
+        for (int i = 0; i < 10; i++) {
+            limiter.adjust();
+        }
+        assertEquals(MB, limiter.rate());
+
+        // Within the target but not idle
+        latency.set(8_000);
+        limiter.adjust();
+        assertEquals(MB, limiter.rate());
+
+        latency.set(1_000);
+        queue.set(500);
+        limiter.adjust();
+        assertEquals(MB, limiter.rate());
+
+        queue.set(0);
+        limiter.adjust();
+        assertEquals(2 * MB, limiter.rate());
+        for (int i = 0; i < 100; i++) {
+            limiter.adjust();
+        }
+        assertEquals(16 * MB, limiter.rate());
+    }
+
+    @Test
+    void acquireWaits() throws Exception {
+        final IoRateLimiter limiter = new IoRateLimiter(1000, 1000, 10_000, () -> 0L, () -> 0, 1);
+        limiter.acquire(1000);
+        limiter.acquire(100);
+        final long start = System.nanoTime();
+        limiter.acquire(1);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+}
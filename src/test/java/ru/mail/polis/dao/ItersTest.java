@@ -19,9 +19,18 @@ package ru.mail.polis.dao;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import org.junit.jupiter.api.Test;
+import ru.mail.polis.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Unit tests for {@link Iters} facilities.
@@ -43,6 +52,21 @@ class ItersTest {
         assertEquals(6, Iterators.size(Iters.until(sixNumbers.iterator(), 100)));
     }
 
+    @Test
+    void descendingRange() throws IOException {
+        final DAO dao = new TreeMapDAO();
+        for (int i = 1; i <= 5; i++) {
+            dao.upsert(buffer(i), buffer(i * 10));
+        }
+        assertEquals(
+                ImmutableList.of(record(4, 40), record(3, 30), record(2, 20)),
+                ImmutableList.copyOf(dao.descendingRange(buffer(2), buffer(5))));
+        assertEquals(
+                ImmutableList.of(record(5, 50), record(4, 40)),
+                ImmutableList.copyOf(Iterators.limit(dao.descendingRange(ByteBuffer.allocate(0), null), 2)));
+        assertFalse(dao.descendingRange(buffer(3), buffer(3)).hasNext());
+    }
+
     @Test
     void collapseEquals() {
         assertFalse(Iters.collapseEquals(Iters.empty()).hasNext());
@@ -55,4 +79,84 @@ class ItersTest {
                 ImmutableList.of(1, 2, 3, 5, 6),
                 ImmutableList.copyOf(collapsed));
     }
+
+    @Test
+    void cursorUntil() {
+        final Cursor cursor = Iters.until(cursor(1, 2, 3, 4), buffer(3));
+        assertEquals(ImmutableList.of(1, 2), keys(cursor));
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void cursorMerge() {
+        final Cursor newest = Iters.cursor(ImmutableList.of(record(2, 20), record(4, 40)).iterator());
+        final Cursor oldest = Iters.cursor(ImmutableList.of(record(1, 1), record(2, 2), record(3, 3), record(4, 4)).iterator());
+        final Iterator<Record> merged = Iters.iterator(Iters.merge(ImmutableList.of(newest, oldest)));
+        assertEquals(
+                ImmutableList.of(record(1, 1), record(2, 20), record(3, 3), record(4, 40)),
+                ImmutableList.copyOf(merged));
+    }
+
+    @Test
+    void mergeDescending() {
+        final Iterator<Integer> newest = ImmutableList.of(6, 4, 2).iterator();
+        final Iterator<Integer> oldest = ImmutableList.of(5, 4, 3, 2, 1).iterator();
+        assertEquals(
+                ImmutableList.of(6, 5, 4, 3, 2, 1),
+                ImmutableList.copyOf(Iters.merge(ImmutableList.of(newest, oldest), Comparator.reverseOrder())));
+
+        // The first iterator wins for equal elements
+        final Iterator<Record> merged = Iters.merge(
+                ImmutableList.of(
+                        ImmutableList.of(record(4, 40), record(2, 20)).iterator(),
+                        ImmutableList.of(record(3, 3), record(2, 2)).iterator()),
+                Comparator.reverseOrder());
+        assertEquals(
+                ImmutableList.of(record(4, 40), record(3, 3), record(2, 20)),
+                ImmutableList.copyOf(merged));
+        assertFalse(Iters.merge(ImmutableList.<Iterator<Integer>>of(), Comparator.naturalOrder()).hasNext());
+    }
+
+    @Test
+    void daoCursor() throws IOException {
+        final DAO dao = new TreeMapDAO();
+        for (int i = 1; i <= 5; i++) {
+            dao.upsert(buffer(i), buffer(i));
+        }
+        final Cursor cursor = dao.cursor(buffer(2));
+        assertEquals(ImmutableList.of(2, 3, 4, 5), keys(cursor));
+        cursor.seek(buffer(4));
+        assertEquals(ImmutableList.of(4, 5), keys(cursor));
+        assertTrue(Iterators.elementsEqual(dao.iterator(buffer(1)), Iters.iterator(dao.cursor(buffer(1)))));
+    }
+
+    private static Cursor cursor(final int... keys) {
+        final List<Record> records = new ArrayList<>();
+        for (final int key : keys) {
+            records.add(record(key, key));
+        }
+        return Iters.cursor(records.iterator());
+    }
+
+    private static List<Integer> keys(final Cursor cursor) {
+        final List<Integer> result = new ArrayList<>();
+        while (cursor.next()) {
+            final ByteBuffer key = cursor.key();
+            result.add(key.getInt(key.position()));
+        }
+        return result;
+    }
+
+    private static Record record(
+            final int key,
+            final int value) {
+        return Record.of(buffer(key), buffer(value));
+    }
+
+    private static ByteBuffer buffer(final int value) {
+        final ByteBuffer result = ByteBuffer.allocate(Integer.BYTES);
+        result.putInt(value);
+        result.rewind();
+        return result;
+    }
 }
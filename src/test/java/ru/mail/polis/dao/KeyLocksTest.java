@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link KeyLocks} and the default {@link DAO#compareAndSet(ByteBuffer, ByteBuffer, ByteBuffer)}.
+ *
+ * @author IgorLo
+ */
+class KeyLocksTest {
+    @Test
+    void equalKeysShareLock() {
+        final KeyLocks locks = new KeyLocks(16);
+        assertSame(locks.get(buffer(42)), locks.get(buffer(42)));
+        assertThrows(IllegalArgumentException.class, () -> new KeyLocks(0));
+    }
+
+    @Test
+    void compareAndSet() throws IOException {
+        try (DAO dao = new TreeMapDAO()) {
+            final ByteBuffer key = buffer(1);
+            assertFalse(dao.compareAndSet(key, buffer(0), buffer(10)));
+            assertTrue(dao.compareAndSet(key, null, buffer(10)));
+            assertFalse(dao.compareAndSet(key, null, buffer(11)));
+            assertTrue(dao.compareAndSet(key, buffer(10), buffer(11)));
+            assertEquals(buffer(11), dao.get(key));
+
+            assertFalse(dao.compareAndSet(key, buffer(10), null));
+            assertTrue(dao.compareAndSet(key, buffer(11), null));
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+    }
+
+    @Test
+    void concurrentIncrements() throws Exception {
+        final int threads = 4;
+        final int increments = 1000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (DAO dao = new TreeMapDAO()) {
+            final ByteBuffer key = buffer(1);
+            dao.upsert(key, buffer(0));
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < increments; i++) {
+                        while (true) {
+                            final ByteBuffer current = dao.get(key);
+                            if (dao.compareAndSet(key, current, buffer(current.getInt(0) + 1))) {
+                                break;
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+            assertEquals(buffer(threads * increments), dao.get(key));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ByteBuffer buffer(final int value) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, value);
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link Manifest}.
+ *
+ * @author IgorLo
+ */
+class ManifestTest {
+    @Test
+    void replay() throws IOException {
+        final File data = Files.createTempDirectory();
+        try (Manifest manifest = Manifest.open(data)) {
+            manifest.add(table(1));
+            manifest.add(table(2));
+            manifest.edit(ImmutableList.of(table(3)), ImmutableList.of(1L, 2L));
+            manifest.add(table(4));
+        }
+
+        try (Manifest manifest = Manifest.open(data)) {
+            final List<Manifest.Table> tables = manifest.tables();
+            assertEquals(ImmutableList.of(3L, 4L), generations(tables));
+            final Manifest.Table table = tables.get(0);
+            assertEquals("3.db", table.getFile());
+            assertEquals(key("a3"), table.getMinKey());
+            assertEquals(key("z3"), table.getMaxKey());
+            assertEquals(30L, table.getRecords());
+            assertEquals(300L, table.getFilterOffset());
+        }
+    }
+
+    @Test
+    void tornTail() throws IOException {
+        final File data = Files.createTempDirectory();
+        try (Manifest manifest = Manifest.open(data)) {
+            manifest.add(table(1));
+            manifest.add(table(2));
+        }
+
+        final File file = new File(data, Manifest.NAME);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+
+        try (Manifest manifest = Manifest.open(data)) {
+            assertEquals(ImmutableList.of(1L), generations(manifest.tables()));
+            // Appends after the discarded tail
+            manifest.add(table(3));
+        }
+        try (Manifest manifest = Manifest.open(data)) {
+            assertEquals(ImmutableList.of(1L, 3L), generations(manifest.tables()));
+        }
+    }
+
+    @Test
+    void corruptedInTheMiddle() throws IOException {
+        final File data = Files.createTempDirectory();
+        try (Manifest manifest = Manifest.open(data)) {
+            manifest.add(table(1));
+            manifest.add(table(2));
+        }
+
+        // Flip the last byte of the first edit
+        final File file = new File(data, Manifest.NAME);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            final long position = Integer.BYTES + raf.readInt() + Integer.BYTES - 1;
+            raf.seek(position);
+            final int last = raf.read();
+            raf.seek(position);
+            raf.write(last ^ 0xFF);
+        }
+
+        assertThrows(IOException.class, () -> Manifest.open(data));
+    }
+
+    @Test
+    void trash() throws IOException {
+        final File data = Files.createTempDirectory();
+        java.nio.file.Files.write(new File(data, "2.db").toPath(), new byte[]{1, 2, 3});
+        java.nio.file.Files.write(new File(data, "garbage").toPath(), new byte[]{4, 5});
+        try (Manifest manifest = Manifest.open(data)) {
+            manifest.add(table(1));
+        }
+        try (Manifest manifest = Manifest.open(data)) {
+            assertEquals(ImmutableList.of(1L), generations(manifest.tables()));
+        }
+    }
+
+    @Test
+    void rewrite() throws IOException {
+        final File data = Files.createTempDirectory();
+        try (Manifest manifest = Manifest.open(data)) {
+            for (long generation = 1; generation <= 3000; generation++) {
+                manifest.edit(ImmutableList.of(table(generation)), ImmutableList.of(generation - 1));
+            }
+        }
+        assertTrue(new File(data, Manifest.NAME).length() < 100_000);
+        try (Manifest manifest = Manifest.open(data)) {
+            assertEquals(ImmutableList.of(3000L), generations(manifest.tables()));
+            manifest.rewrite();
+        }
+        try (Manifest manifest = Manifest.open(data)) {
+            assertEquals(ImmutableList.of(3000L), generations(manifest.tables()));
+        }
+    }
+
+    @Test
+    void failedRewrite() throws IOException {
+        final File data = Files.createTempDirectory();
+        final File log = new File(data, Manifest.NAME);
+        try (Manifest manifest = Manifest.open(data)) {
+            manifest.add(table(1));
+
+            // A non-empty directory in place of the log can't be replaced by the rewritten one
+            assertTrue(log.delete());
+            assertTrue(new File(log, "trash").mkdirs());
+            assertThrows(IOException.class, manifest::rewrite);
+
+            // Still takes the edits
+            manifest.add(table(2));
+            assertEquals(ImmutableList.of(1L, 2L), generations(manifest.tables()));
+
+            Files.recursiveDelete(log);
+            manifest.rewrite();
+            manifest.add(table(3));
+        }
+        try (Manifest manifest = Manifest.open(data)) {
+            assertEquals(ImmutableList.of(1L, 2L, 3L), generations(manifest.tables()));
+        }
+    }
+
+    @Test
+    void writeTo() throws IOException {
+        final File data = Files.createTempDirectory();
+        final File snapshot = new File(data, "snapshot");
+        try (Manifest manifest = Manifest.open(data)) {
+            manifest.add(table(1));
+            manifest.edit(ImmutableList.of(table(2)), ImmutableList.of(1L));
+            assertTrue(snapshot.mkdir());
+            manifest.writeTo(snapshot);
+
+            // Later edits of the live manifest don't leak into the snapshot
+            manifest.add(table(3));
+        }
+        try (Manifest manifest = Manifest.open(snapshot)) {
+            assertEquals(ImmutableList.of(2L), generations(manifest.tables()));
+        }
+    }
+
+    private static List<Long> generations(final List<Manifest.Table> tables) {
+        return tables.stream().map(Manifest.Table::getGeneration).collect(Collectors.toList());
+    }
+
+    private static Manifest.Table table(final long generation) {
+        return new Manifest.Table(
+                generation,
+                generation + ".db",
+                key("a" + generation),
+                key("z" + generation),
+                generation * 10,
+                generation * 100);
+    }
+
+    private static ByteBuffer key(final String key) {
+        return ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+    }
+}
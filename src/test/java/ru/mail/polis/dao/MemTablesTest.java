@@ -0,0 +1,265 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link MemTable} and {@link MemTables}.
+ *
+ * @author IgorLo
+ */
+class MemTablesTest {
+    @Test
+    void memTable() {
+        final MemTable table = new MemTable(64);
+        assertTrue(table.upsert(buffer(2), buffer(20)));
+        assertTrue(table.upsert(buffer(1), buffer(10)));
+        assertTrue(table.remove(buffer(3)));
+        assertEquals(buffer(10), table.get(buffer(1)));
+        assertTrue(MemTable.isTombstone(table.get(buffer(3))));
+        assertNull(table.get(buffer(4)));
+        assertTrue(table.get(buffer(1)).isReadOnly());
+
+        final Iterator<Map.Entry<ByteBuffer, ByteBuffer>> entries = table.entries(buffer(2));
+        assertEquals(buffer(2), entries.next().getKey());
+        assertEquals(buffer(3), entries.next().getKey());
+        assertFalse(entries.hasNext());
+
+        // 2 * 8 + 4 bytes used out of 64
+        assertEquals(20, table.bytes());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(table.upsert(buffer(10 + i), buffer(i)));
+        }
+        assertFalse(table.upsert(buffer(100), buffer(100)));
+
+        table.freeze();
+        table.awaitWriters();
+        assertFalse(table.remove(buffer(1)));
+    }
+
+    @Test
+    void descendingEntries() {
+        final SnapshotTracker tracker = new SnapshotTracker(0L);
+        final MemTable table = new MemTable(256, tracker);
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(table.upsert(buffer(i), buffer(i)));
+        }
+        final SnapshotTracker.Snapshot snapshot = tracker.open();
+        assertTrue(table.upsert(buffer(4), buffer(40)));
+        assertTrue(table.remove(buffer(3)));
+
+        assertEquals(
+                List.of(Map.entry(buffer(4), buffer(40)), Map.entry(buffer(3), MemTable.TOMBSTONE),
+                        Map.entry(buffer(2), buffer(2))),
+                ImmutableList.copyOf(table.descendingEntries(buffer(2), buffer(5))));
+        assertEquals(
+                List.of(buffer(5), buffer(4), buffer(3), buffer(2), buffer(1)),
+                keys(table.descendingEntries(ByteBuffer.allocate(0), null)));
+        assertEquals(
+                List.of(Map.entry(buffer(4), buffer(4)), Map.entry(buffer(3), buffer(3))),
+                ImmutableList.copyOf(table.descendingEntries(buffer(3), buffer(5), snapshot)));
+        assertFalse(table.descendingEntries(buffer(3), buffer(3)).hasNext());
+        assertFalse(new MemTable(16).descendingEntries(ByteBuffer.allocate(0), null).hasNext());
+        snapshot.close();
+    }
+
+    @Test
+    void descendingRange() throws IOException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final MemTables tables = new MemTables(32, 4, table -> flushed(release));
+        for (int i = 1; i <= 6; i++) {
+            tables.upsert(buffer(i), buffer(i));
+        }
+        // The active table shadows the frozen one
+        tables.upsert(buffer(2), buffer(20));
+        tables.remove(buffer(5));
+        assertEquals(2, tables.tables().size());
+
+        assertEquals(
+                List.of(Record.of(buffer(6), buffer(6)), Record.of(buffer(4), buffer(4)),
+                        Record.of(buffer(3), buffer(3)), Record.of(buffer(2), buffer(20))),
+                ImmutableList.copyOf(tables.descendingRange(buffer(2), null)));
+        release.countDown();
+        tables.close();
+    }
+
+    @Test
+    void swapAndFlush() throws IOException, InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<MemTable> flushed = new CopyOnWriteArrayList<>();
+        final MemTables tables = new MemTables(
+                32,
+                4,
+                table -> {
+                    await(release);
+                    flushed.add(table);
+                    return "table" + flushed.size();
+                });
+
+        // Each upsert takes 8 bytes, so the tables are swapped every 4 upserts
+        for (int i = 0; i < 10; i++) {
+            tables.upsert(buffer(i), buffer(i));
+        }
+        tables.remove(buffer(0));
+
+        // Flushes are blocked but the frozen tables still serve reads
+        assertEquals(3, tables.tables().size());
+        assertTrue(MemTable.isTombstone(tables.get(buffer(0))));
+        assertEquals(buffer(5), tables.get(buffer(5)));
+        assertTrue(flushed.isEmpty());
+
+        release.countDown();
+        tables.close();
+        assertEquals(3, flushed.size());
+        assertEquals(1, tables.tables().size());
+    }
+
+    @Test
+    void largeRecord() throws IOException {
+        final List<MemTable> flushed = new CopyOnWriteArrayList<>();
+        final StorageMetrics metrics = new StorageMetrics();
+        final MemTables tables = new MemTables(
+                16,
+                2,
+                table -> {
+                    flushed.add(table);
+                    return "large";
+                },
+                new SnapshotTracker(0L),
+                metrics);
+        tables.upsert(buffer(1), ByteBuffer.allocate(100));
+        assertEquals(ByteBuffer.allocate(100), tables.get(buffer(1)));
+        tables.close();
+        assertEquals(1, flushed.size());
+        assertEquals(1, metrics.flushes());
+        assertEquals(flushed.get(0).bytes(), metrics.bytesWritten());
+    }
+
+    @Test
+    void batchAcrossTables() throws IOException {
+        final SnapshotTracker tracker = new SnapshotTracker(0L);
+        final CountDownLatch release = new CountDownLatch(1);
+        final MemTables tables = new MemTables(32, 4, table -> flushed(release), tracker);
+        tables.upsert(buffer(1), buffer(10));
+        tables.upsert(buffer(2), buffer(20));
+        final SnapshotTracker.Snapshot snapshot = tracker.open();
+
+        // 24 bytes don't fit the 16 bytes left, so the whole batch goes to the next table
+        tables.write(new WriteBatch()
+                .upsert(buffer(1), buffer(11))
+                .remove(buffer(2))
+                .upsert(buffer(3), buffer(30)));
+        assertEquals(2, tables.tables().size());
+        assertEquals(16, tables.tables().get(1).bytes());
+        assertEquals(buffer(11), tables.get(buffer(1)));
+        assertTrue(MemTable.isTombstone(tables.get(buffer(2))));
+
+        // The snapshot reads the older table through the newer one
+        assertEquals(buffer(10), tables.get(buffer(1), snapshot));
+        assertEquals(buffer(20), tables.get(buffer(2), snapshot));
+        assertNull(tables.get(buffer(3), snapshot));
+        snapshot.close();
+        release.countDown();
+        tables.close();
+    }
+
+    @Test
+    void concurrentWriters() throws Exception {
+        final Set<ByteBuffer> flushed = ConcurrentHashMap.newKeySet();
+        final MemTables tables = new MemTables(
+                1024,
+                2,
+                table -> {
+                    table.entries(ByteBuffer.allocate(0)).forEachRemaining(e -> flushed.add(copy(e.getKey())));
+                    return "table";
+                });
+
+        final int threads = 4;
+        final int perThread = 10_000;
+        final List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int base = t * perThread;
+            writers.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < perThread; i++) {
+                        tables.upsert(buffer(base + i), buffer(i));
+                    }
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }));
+        }
+        writers.forEach(Thread::start);
+        for (final Thread writer : writers) {
+            writer.join();
+        }
+        tables.close();
+
+        // No write is lost by the swaps
+        assertEquals(threads * perThread, flushed.size());
+    }
+
+    private static List<ByteBuffer> keys(final Iterator<Map.Entry<ByteBuffer, ByteBuffer>> entries) {
+        final List<ByteBuffer> result = new ArrayList<>();
+        entries.forEachRemaining(e -> result.add(e.getKey()));
+        return result;
+    }
+
+    private static String flushed(final CountDownLatch release) {
+        await(release);
+        return "table";
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static ByteBuffer copy(final ByteBuffer buffer) {
+        final ByteBuffer result = ByteBuffer.allocate(buffer.remaining());
+        result.put(buffer.duplicate());
+        result.rewind();
+        return result;
+    }
+
+    private static ByteBuffer buffer(final int value) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, value);
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link MerkleTree}.
+ *
+ * @author IgorLo
+ */
+class MerkleTreeTest extends TestBase {
+    @Test
+    void sameContents() throws IOException {
+        final DAO left = new TreeMapDAO();
+        final DAO right = new TreeMapDAO();
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            final ByteBuffer value = randomValueBuffer();
+            left.upsert(key, value);
+            right.upsert(key, value);
+        }
+
+        final MerkleTree.Snapshot l = build(left);
+        final MerkleTree.Snapshot r = build(right);
+        assertEquals(l.root(), r.root());
+        assertTrue(l.diff(r).isEmpty());
+    }
+
+    @Test
+    void singleDifference() throws IOException {
+        final DAO left = new TreeMapDAO();
+        final DAO right = new TreeMapDAO();
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            final ByteBuffer value = randomValueBuffer();
+            left.upsert(key, value);
+            right.upsert(key, value);
+        }
+        final ByteBuffer key = randomKeyBuffer();
+        left.upsert(key, randomValueBuffer());
+
+        final MerkleTree.Snapshot l = build(left);
+        final MerkleTree.Snapshot r = build(right);
+        assertNotEquals(l.root(), r.root());
+
+        final List<MerkleTree.Range> diff = l.diff(r);
+        assertEquals(1, diff.size());
+        final MerkleTree.Range range = diff.get(0);
+        assertTrue(range.contains(key));
+
+        // Just a few records are streamed by a bounded scan
+        int streamed = 0;
+        boolean found = false;
+        for (final Iterator<Record> records = left.range(range.getFrom(), range.getTo()); records.hasNext(); ) {
+            final ByteBuffer next = records.next().getKey();
+            assertTrue(range.contains(next));
+            found |= next.equals(key);
+            streamed++;
+        }
+        assertTrue(found);
+        assertTrue(streamed < 10, "Streamed " + streamed);
+    }
+
+    @Test
+    void incremental() throws IOException {
+        final DAO dao = new TreeMapDAO();
+        final MerkleTree tree = new MerkleTree(dao);
+        for (int i = 0; i < 1000; i++) {
+            write(dao, tree, randomKeyBuffer(), randomValueBuffer());
+        }
+        final ByteBuffer key = randomKeyBuffer();
+        final MerkleTree.Snapshot before = tree.snapshot();
+        write(dao, tree, key, randomValueBuffer());
+        write(dao, tree, key, randomValueBuffer());
+        assertEquals(1, before.diff(tree.snapshot()).size());
+        write(dao, tree, key, null);
+        assertTrue(before.diff(tree.snapshot()).isEmpty());
+
+        // Maintained incrementally exactly as built from scratch
+        assertEquals(build(dao).root(), tree.snapshot().root());
+    }
+
+    @Test
+    void scoped() throws IOException {
+        final Predicate<ByteBuffer> even = key -> key.get(key.position()) % 2 == 0;
+        final DAO left = new TreeMapDAO();
+        final DAO right = new TreeMapDAO();
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            final ByteBuffer value = randomValueBuffer();
+            left.upsert(key, value);
+            right.upsert(key, value);
+        }
+
+        // The records the other replica doesn't own
+        final MerkleTree tree = new MerkleTree(left, MerkleTree.DEFAULT_DEPTH, even);
+        for (int i = 0; i < 100; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            if (!even.test(key)) {
+                write(left, tree, key, randomValueBuffer());
+            }
+        }
+        final MerkleTree.Snapshot r = new MerkleTree(right, MerkleTree.DEFAULT_DEPTH, even).snapshot();
+        assertTrue(tree.snapshot().diff(r).isEmpty());
+
+        final ByteBuffer key = ByteBuffer.wrap(new byte[]{2, 4, 6});
+        write(left, tree, key, randomValueBuffer());
+        final List<MerkleTree.Range> diff = tree.snapshot().diff(r);
+        assertEquals(1, diff.size());
+        assertTrue(diff.get(0).contains(key));
+    }
+
+    @Test
+    void serialization() throws IOException {
+        final DAO dao = new TreeMapDAO();
+        for (int i = 0; i < 100; i++) {
+            dao.upsert(randomKeyBuffer(), randomValueBuffer());
+        }
+
+        final MerkleTree.Snapshot snapshot = build(dao);
+        final MerkleTree.Snapshot copy = MerkleTree.Snapshot.fromBytes(snapshot.toBytes());
+        assertEquals(snapshot.root(), copy.root());
+        assertTrue(snapshot.diff(copy).isEmpty());
+
+        assertThrows(IllegalArgumentException.class, () -> MerkleTree.Snapshot.fromBytes(new byte[3]));
+        final MerkleTree.Snapshot shallow = new MerkleTree(dao, 4, key -> true).snapshot();
+        assertThrows(IllegalArgumentException.class, () -> snapshot.diff(shallow));
+    }
+
+    @Test
+    void bounds() {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        keys.add(ByteBuffer.allocate(0));
+        keys.add(ByteBuffer.wrap(new byte[]{Byte.MIN_VALUE}));
+        keys.add(ByteBuffer.wrap(new byte[]{Byte.MAX_VALUE, Byte.MAX_VALUE, Byte.MAX_VALUE, Byte.MAX_VALUE}));
+        keys.add(ByteBuffer.wrap(new byte[]{0, Byte.MIN_VALUE}));
+        keys.add(ByteBuffer.wrap(new byte[]{-1}));
+        for (int i = 0; i < 1000; i++) {
+            keys.add(randomBuffer(1 + i % 4));
+        }
+
+        for (final int depth : new int[]{1, 6, MerkleTree.DEFAULT_DEPTH, MerkleTree.MAX_DEPTH}) {
+            for (final ByteBuffer key : keys) {
+                final int leaf = MerkleTree.leafOf(key, depth);
+                assertTrue(MerkleTree.lowerBound(leaf, depth).compareTo(key) <= 0, key + " at " + depth);
+                final ByteBuffer upper = MerkleTree.upperBound(leaf, depth);
+                assertTrue(upper == null || key.compareTo(upper) < 0, key + " at " + depth);
+            }
+        }
+        assertEquals(ByteBuffer.allocate(0), MerkleTree.lowerBound(0, MerkleTree.DEFAULT_DEPTH));
+    }
+
+    private static void write(
+            final DAO dao,
+            final MerkleTree tree,
+            final ByteBuffer key,
+            final ByteBuffer value) throws IOException {
+        if (value == null) {
+            dao.remove(key);
+        } else {
+            dao.upsert(key, value);
+        }
+        tree.invalidate(key);
+    }
+
+    private static MerkleTree.Snapshot build(final DAO dao) throws IOException {
+        return new MerkleTree(dao).snapshot();
+    }
+}
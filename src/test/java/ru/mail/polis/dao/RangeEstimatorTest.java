@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link RangeEstimator} checked against the exact counts of {@link DAO#estimate}.
+ *
+ * @author IgorLo
+ */
+class RangeEstimatorTest {
+    private static final int COUNT = 10_000;
+    private static final int INTERVAL = 128;
+
+    @Test
+    void withinBounds() throws IOException {
+        final Random random = new Random(42);
+        try (DAO dao = new TreeMapDAO()) {
+            final RangeEstimator.Builder builder = new RangeEstimator.Builder(INTERVAL);
+            for (int i = 0; i < COUNT; i++) {
+                // Only the even keys, so the odd ones fall between the records
+                final ByteBuffer key = key(2 * i);
+                final ByteBuffer value = ByteBuffer.allocate(1 + random.nextInt(100));
+                dao.upsert(key, value);
+                builder.add(key, key.remaining() + value.remaining());
+            }
+            final RangeEstimator estimator = builder.build();
+
+            for (int i = 0; i < 1000; i++) {
+                final int a = random.nextInt(2 * COUNT + 2);
+                final int b = random.nextInt(2 * COUNT + 2);
+                final ByteBuffer from = key(Math.min(a, b));
+                final ByteBuffer to = random.nextInt(10) == 0 ? null : key(Math.max(a, b));
+
+                final RangeEstimator.Estimate exact = dao.estimate(from, to);
+                final RangeEstimator.Estimate estimate = estimator.estimate(from, to);
+                assertTrue(estimate.getKeysError() <= INTERVAL);
+                assertTrue(
+                        Math.abs(estimate.getKeys() - exact.getKeys()) <= estimate.getKeysError(),
+                        estimate + " vs " + exact);
+                assertTrue(
+                        Math.abs(estimate.getBytes() - exact.getBytes()) <= estimate.getBytesError(),
+                        estimate + " vs " + exact);
+            }
+        }
+    }
+
+    @Test
+    void exactAtEnds() {
+        final RangeEstimator.Builder builder = new RangeEstimator.Builder(INTERVAL);
+        for (int i = 0; i < COUNT; i++) {
+            builder.add(key(i), 10);
+        }
+        final RangeEstimator.Estimate all = builder.build().estimate(ByteBuffer.allocate(0), null);
+        assertEquals(COUNT, all.getKeys());
+        assertEquals(10L * COUNT, all.getBytes());
+        assertEquals(0L, all.getKeysError());
+
+        assertEquals(0L, builder.build().estimate(key(5), key(5)).getKeys());
+        assertEquals(
+                2L * COUNT,
+                builder.build().estimate(key(0), null).plus(all).getKeys());
+    }
+
+    private static ByteBuffer key(final int value) {
+        return ByteBuffer.wrap(String.format("%06d", value).getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Unit tests for {@link DAO#parallelRange(ByteBuffer, ByteBuffer, int)} and {@link RangeSpliterator}.
+ *
+ * @author IgorLo
+ */
+class RangeSpliteratorTest {
+    private static final int COUNT = 10_000;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    @Test
+    void parallelRange() throws IOException {
+        try (DAO dao = dao()) {
+            final List<ByteBuffer> sequential = ImmutableList.copyOf(
+                    Iterators.transform(dao.range(key(123), key(9876)), Record::getKey));
+            final List<ByteBuffer> parallel = dao.parallelRange(key(123), key(9876), 16)
+                    .map(Record::getKey)
+                    .collect(Collectors.toList());
+            assertEquals(9876 - 123, parallel.size());
+            assertEquals(sequential, parallel);
+
+            assertEquals(COUNT, dao.parallelRange(EMPTY, null, 7).count());
+        }
+    }
+
+    @Test
+    void noSplits() throws IOException {
+        try (DAO dao = new TreeMapDAO()) {
+            dao.upsert(key(1), key(1));
+            assertEquals(1, dao.parallelRange(EMPTY, null, 8).count());
+        }
+    }
+
+    @Test
+    void trySplit() throws IOException {
+        try (DAO dao = dao()) {
+            final List<ByteBuffer> splits = new ArrayList<>();
+            splits.add(key(2500));
+            splits.add(key(5000));
+            splits.add(key(7500));
+            final Spliterator<Record> suffix = new RangeSpliterator(dao, EMPTY, null, splits);
+
+            final Spliterator<Record> prefix = suffix.trySplit();
+            assertNotNull(prefix);
+            final Spliterator<Record> first = prefix.trySplit();
+            assertNotNull(first);
+            assertNull(prefix.trySplit());
+
+            assertEquals(2500, count(first));
+            assertEquals(2500, count(prefix));
+            assertEquals(5000, count(suffix));
+        }
+    }
+
+    private static long count(final Spliterator<Record> spliterator) {
+        final long[] count = {0};
+        spliterator.forEachRemaining(r -> count[0]++);
+        return count[0];
+    }
+
+    private static DAO dao() throws IOException {
+        final DAO dao = new TreeMapDAO() {
+            @NotNull
+            @Override
+            public List<ByteBuffer> splitPoints(
+                    @NotNull final ByteBuffer from,
+                    @Nullable final ByteBuffer to,
+                    final int parts) {
+                final List<ByteBuffer> result = new ArrayList<>();
+                for (int i = 1; i < parts; i++) {
+                    result.add(key(i * COUNT / parts));
+                }
+                return result;
+            }
+        };
+        for (int i = 0; i < COUNT; i++) {
+            dao.upsert(key(i), key(i));
+        }
+        return dao;
+    }
+
+    private static ByteBuffer key(final int value) {
+        return ByteBuffer.wrap(String.format("%05d", value).getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link RangeTombstones} and {@link DAO#removeRange(ByteBuffer, ByteBuffer)}.
+ *
+ * @author IgorLo
+ */
+class RangeTombstonesTest {
+    @Test
+    void generations() {
+        final RangeTombstones tombstones = new RangeTombstones();
+        tombstones.add(buffer(10), buffer(20), 5);
+        tombstones.add(buffer(15), buffer(30), 3);
+        tombstones.add(buffer(40), null, 7);
+
+        assertEquals(-1L, tombstones.generation(buffer(9)));
+        assertEquals(5L, tombstones.generation(buffer(10)));
+        assertEquals(5L, tombstones.generation(buffer(19)));
+        assertEquals(3L, tombstones.generation(buffer(20)));
+        assertEquals(3L, tombstones.generation(buffer(29)));
+        assertEquals(-1L, tombstones.generation(buffer(30)));
+        assertEquals(7L, tombstones.generation(buffer(Integer.MAX_VALUE)));
+
+        // The later writes stay visible
+        assertTrue(tombstones.hides(buffer(12), 4));
+        assertFalse(tombstones.hides(buffer(12), 5));
+        assertFalse(tombstones.hides(buffer(25), 3));
+    }
+
+    @Test
+    void overlappingOpenEnded() {
+        final RangeTombstones tombstones = new RangeTombstones();
+        tombstones.add(buffer(10), null, 1);
+        tombstones.add(buffer(20), null, 2);
+        assertEquals(-1L, tombstones.generation(buffer(0)));
+        assertEquals(-1L, tombstones.generation(buffer(9)));
+        assertEquals(1L, tombstones.generation(buffer(10)));
+        assertEquals(1L, tombstones.generation(buffer(19)));
+        assertEquals(2L, tombstones.generation(buffer(20)));
+        assertEquals(2L, tombstones.generation(buffer(Integer.MAX_VALUE)));
+
+        // And the other way round
+        final RangeTombstones reversed = new RangeTombstones();
+        reversed.add(buffer(20), null, 2);
+        reversed.add(buffer(10), null, 1);
+        assertEquals(-1L, reversed.generation(buffer(9)));
+        assertEquals(1L, reversed.generation(buffer(15)));
+        assertEquals(2L, reversed.generation(buffer(25)));
+        assertEquals(reversed.generation(buffer(25)), RangeTombstones.fromBytes(reversed.toBytes()).generation(buffer(25)));
+    }
+
+    @Test
+    void hidesRange() {
+        final RangeTombstones tombstones = new RangeTombstones();
+        tombstones.add(buffer(10), buffer(20), 5);
+        tombstones.add(buffer(20), buffer(30), 6);
+
+        assertTrue(tombstones.hides(buffer(10), buffer(29), 4));
+        assertFalse(tombstones.hides(buffer(10), buffer(29), 5));
+        assertFalse(tombstones.hides(buffer(10), buffer(30), 4));
+        assertFalse(tombstones.hides(buffer(5), buffer(15), 4));
+
+        tombstones.add(buffer(35), buffer(40), 9);
+        assertFalse(tombstones.hides(buffer(25), buffer(36), 4));
+    }
+
+    @Test
+    void filter() {
+        final RangeTombstones tombstones = new RangeTombstones();
+        tombstones.add(buffer(2), buffer(4), 2);
+        tombstones.add(buffer(6), buffer(7), 2);
+
+        final List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            records.add(Record.of(buffer(i), buffer(i)));
+        }
+        assertEquals(ImmutableList.of(0, 1, 4, 5, 7), keys(tombstones.filter(records.iterator(), 1)));
+        assertEquals(8, keys(tombstones.filter(records.iterator(), 2)).size());
+    }
+
+    @Test
+    void serialization() {
+        final RangeTombstones tombstones = new RangeTombstones();
+        tombstones.add(buffer(10), buffer(20), 5);
+        tombstones.add(buffer(40), null, 7);
+
+        final RangeTombstones restored = RangeTombstones.fromBytes(tombstones.toBytes());
+        assertEquals(5L, restored.generation(buffer(15)));
+        assertEquals(-1L, restored.generation(buffer(20)));
+        assertEquals(7L, restored.generation(buffer(100)));
+    }
+
+    @Test
+    void removeRange() throws IOException {
+        try (DAO dao = new TreeMapDAO()) {
+            for (int i = 0; i < 5000; i++) {
+                dao.upsert(key(i), buffer(i));
+            }
+            dao.removeRange(key(100), key(4000));
+            assertEquals(1100, Iterators.size(dao.iterator(ByteBuffer.allocate(0))));
+            assertEquals(
+                    ImmutableList.of(key(99), key(4000)),
+                    ImmutableList.copyOf(Iterators.transform(dao.range(key(99), key(4001)), Record::getKey)));
+
+            dao.removeRange(key(50), null);
+            assertEquals(50, Iterators.size(dao.iterator(ByteBuffer.allocate(0))));
+        }
+    }
+
+    private static List<Integer> keys(final Iterator<Record> records) {
+        final List<Integer> result = new ArrayList<>();
+        records.forEachRemaining(r -> result.add(r.getKey().getInt(0)));
+        return result;
+    }
+
+    /**
+     * Keys in ascending order of the signed bytes.
+     */
+    private static ByteBuffer key(final int value) {
+        return ByteBuffer.wrap(String.format("%05d", value).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer buffer(final int value) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, value);
+    }
+}
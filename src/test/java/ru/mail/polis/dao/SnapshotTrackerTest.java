@@ -0,0 +1,211 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Record;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link SnapshotTracker} and the versions of {@link MemTable}.
+ *
+ * @author IgorLo
+ */
+class SnapshotTrackerTest {
+    // Fits the concurrent tests writing at most 2 * 8 bytes a million times
+    private static final int CAPACITY = 16 << 20;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    @Test
+    void pointInTime() {
+        final SnapshotTracker tracker = new SnapshotTracker(0L);
+        final MemTable table = new MemTable(CAPACITY, tracker);
+        table.upsert(buffer(1), buffer(10));
+        table.upsert(buffer(2), buffer(20));
+
+        try (SnapshotTracker.Snapshot snapshot = tracker.open()) {
+            assertEquals(2L, snapshot.getSequence());
+            final Iterator<Record> opened = table.iterator(EMPTY, snapshot);
+
+            table.upsert(buffer(1), buffer(11));
+            table.remove(buffer(2));
+            table.upsert(buffer(3), buffer(30));
+
+            assertEquals(ImmutableList.of(record(1, 10), record(2, 20)), ImmutableList.copyOf(opened));
+            assertEquals(buffer(20), table.get(buffer(2), snapshot));
+            assertNull(table.get(buffer(3), snapshot));
+        }
+
+        try (SnapshotTracker.Snapshot latest = tracker.open()) {
+            assertEquals(
+                    ImmutableList.of(record(1, 11), record(3, 30)),
+                    ImmutableList.copyOf(table.iterator(EMPTY, latest)));
+            assertTrue(MemTable.isTombstone(table.get(buffer(2), latest)));
+        }
+    }
+
+    @Test
+    void trim() {
+        final SnapshotTracker tracker = new SnapshotTracker(0L);
+        final MemTable table = new MemTable(CAPACITY, tracker);
+        table.upsert(buffer(1), buffer(1));
+        final SnapshotTracker.Snapshot snapshot = tracker.open();
+        table.upsert(buffer(1), buffer(2));
+        table.upsert(buffer(1), buffer(3));
+
+        // The snapshot needs the first version
+        assertEquals(0, table.trim());
+        assertEquals(buffer(1), table.get(buffer(1), snapshot));
+
+        snapshot.close();
+        assertEquals(2, table.trim());
+        assertEquals(1, table.count());
+    }
+
+    @Test
+    void retain() {
+        final SnapshotTracker tracker = new SnapshotTracker(10L);
+        final SnapshotTracker.Snapshot snapshot = tracker.open();
+        // Versions of a key written at 12, 9, 7 and 3, the newest first
+        final long[] sequences = {12L, 9L, 7L, 3L};
+        assertArrayEquals(new boolean[]{true, true, false, false}, tracker.retain(sequences));
+        snapshot.close();
+        assertArrayEquals(new boolean[]{true, false, false, false}, tracker.retain(sequences));
+    }
+
+    @Test
+    void consistentUnderWrites() throws InterruptedException {
+        final SnapshotTracker tracker = new SnapshotTracker(0L);
+        final MemTable table = new MemTable(CAPACITY, tracker);
+        table.upsert(buffer(1), buffer(0));
+        table.upsert(buffer(2), buffer(0));
+
+        // Both keys are updated with the same counter, key 1 first
+        final AtomicBoolean stop = new AtomicBoolean();
+        final Thread writer = new Thread(() -> {
+            for (int i = 1; i < 1_000_000 && !stop.get(); i++) {
+                table.upsert(buffer(1), buffer(i));
+                table.upsert(buffer(2), buffer(i));
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                try (SnapshotTracker.Snapshot snapshot = tracker.open()) {
+                    final Record[] records = Iterators.toArray(table.iterator(EMPTY, snapshot), Record.class);
+                    final int first = records[0].getValue().getInt(0);
+                    final int second = records[1].getValue().getInt(0);
+                    // Never a torn view
+                    assertTrue(first == second || first == second + 1, first + " vs " + second);
+                }
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+    }
+
+    @Test
+    void openDuringTrim() throws InterruptedException {
+        final SnapshotTracker tracker = new SnapshotTracker(0L);
+        final MemTable table = new MemTable(CAPACITY, tracker);
+        table.upsert(buffer(1), buffer(0));
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final Thread writer = new Thread(() -> {
+            for (int i = 1; i < 1_000_000 && !stop.get(); i++) {
+                table.upsert(buffer(1), buffer(i));
+                table.trim();
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 10_000; i++) {
+                try (SnapshotTracker.Snapshot snapshot = tracker.open()) {
+                    // Never trimmed past a snapshot being opened
+                    assertTrue(tracker.oldest() <= snapshot.getSequence());
+                    assertNotNull(table.get(buffer(1), snapshot));
+                }
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+    }
+
+    @Test
+    void batchIsAtomic() throws InterruptedException {
+        final SnapshotTracker tracker = new SnapshotTracker(0L);
+        final MemTable table = new MemTable(CAPACITY, tracker);
+        table.write(new WriteBatch()
+                .upsert(buffer(1), buffer(0))
+                .upsert(buffer(2), buffer(0)));
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final Thread writer = new Thread(() -> {
+            final WriteBatch batch = new WriteBatch();
+            for (int i = 1; i < 1_000_000 && !stop.get(); i++) {
+                batch.clear();
+                table.write(batch
+                        .upsert(buffer(1), buffer(i))
+                        .upsert(buffer(2), buffer(i)));
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                try (SnapshotTracker.Snapshot snapshot = tracker.open()) {
+                    final Record[] records = Iterators.toArray(table.iterator(EMPTY, snapshot), Record.class);
+                    assertEquals(records[0].getValue(), records[1].getValue());
+                }
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+
+        // A key repeated within the batch keeps the last operation
+        assertTrue(table.write(new WriteBatch()
+                .upsert(buffer(3), buffer(30))
+                .remove(buffer(3))));
+        try (SnapshotTracker.Snapshot snapshot = tracker.open()) {
+            assertTrue(MemTable.isTombstone(table.get(buffer(3), snapshot)));
+        }
+    }
+
+    private static Record record(
+            final int key,
+            final int value) {
+        return Record.of(buffer(key), buffer(value));
+    }
+
+    private static ByteBuffer buffer(final int value) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, value);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link TableOpener}.
+ *
+ * @author IgorLo
+ */
+class TableOpenerTest {
+    private static final File DATA = new File(".");
+
+    @Test
+    void parallel() throws IOException {
+        final int parallelism = 4;
+        final CountDownLatch started = new CountDownLatch(parallelism);
+        final List<Opened> opened = TableOpener.open(
+                DATA,
+                tables(16),
+                table -> {
+                    started.countDown();
+                    try {
+                        // Proceeds only if the first tables are opened concurrently
+                        assertTrue(started.await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    return new Opened(table.getGeneration());
+                },
+                parallelism);
+        assertEquals(
+                LongStream.rangeClosed(1, 16).boxed().collect(Collectors.toList()),
+                opened.stream().map(t -> t.generation).collect(Collectors.toList()));
+    }
+
+    @Test
+    void failure() {
+        final AtomicInteger closed = new AtomicInteger();
+        final IOException broken = new IOException("Broken footer");
+        final IOException thrown = assertThrows(
+                IOException.class,
+                () -> TableOpener.open(
+                        DATA,
+                        tables(8),
+                        table -> {
+                            if (table.getGeneration() == 5) {
+                                throw broken;
+                            }
+                            return () -> closed.incrementAndGet();
+                        },
+                        3));
+        assertSame(broken, thrown);
+        assertEquals(7, closed.get());
+    }
+
+    @Test
+    void interrupted() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger opened = new AtomicInteger();
+        final AtomicInteger closed = new AtomicInteger();
+        final Thread main = Thread.currentThread();
+        final Thread interrupter = new Thread(() -> {
+            try {
+                assertTrue(started.await(10, TimeUnit.SECONDS));
+                main.interrupt();
+                // Let the tables being opened complete after the interrupt
+                Thread.sleep(100);
+                release.countDown();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        });
+        interrupter.start();
+        try {
+            assertThrows(
+                    InterruptedIOException.class,
+                    () -> TableOpener.open(
+                            DATA,
+                            tables(8),
+                            table -> {
+                                started.countDown();
+                                try {
+                                    assertTrue(release.await(10, TimeUnit.SECONDS));
+                                } catch (InterruptedException e) {
+                                    throw new AssertionError(e);
+                                }
+                                opened.incrementAndGet();
+                                return () -> closed.incrementAndGet();
+                            },
+                            2));
+            assertTrue(Thread.interrupted());
+        } finally {
+            interrupter.join();
+        }
+        // The two tables being opened are closed and the pending ones are never opened
+        assertEquals(2, opened.get());
+        assertEquals(2, closed.get());
+    }
+
+    private static List<Manifest.Table> tables(final int count) {
+        final ImmutableList.Builder<Manifest.Table> result = ImmutableList.builder();
+        for (long generation = 1; generation <= count; generation++) {
+            result.add(new Manifest.Table(
+                    generation,
+                    generation + ".db",
+                    ByteBuffer.allocate(0),
+                    ByteBuffer.allocate(0),
+                    0L,
+                    0L));
+        }
+        return result.build();
+    }
+
+    private static final class Opened implements Closeable {
+        private final long generation;
+
+        Opened(final long generation) {
+            this.generation = generation;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.Record;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Trivial in-memory {@link DAO} to test the facilities built on top of the interface.
+ *
+ * @author IgorLo
+ */
+public class TreeMapDAO implements DAO {
+    private final NavigableMap<ByteBuffer, ByteBuffer> map = new ConcurrentSkipListMap<>();
+
+    @NotNull
+    @Override
+    public Iterator<Record> iterator(@NotNull final ByteBuffer from) {
+        return map.tailMap(from).entrySet().stream()
+                .map(e -> Record.of(e.getKey(), e.getValue()))
+                .iterator();
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        map.put(copy(key), copy(value));
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) {
+        map.remove(key);
+    }
+
+    @Override
+    public void close() {
+        map.clear();
+    }
+
+    @NotNull
+    private static ByteBuffer copy(@NotNull final ByteBuffer buffer) {
+        final ByteBuffer result = ByteBuffer.allocate(buffer.remaining());
+        result.put(buffer.duplicate());
+        result.rewind();
+        return result;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link ValueLog}.
+ *
+ * @author IgorLo
+ */
+class ValueLogTest {
+    private static final int VALUE_SIZE = 1024;
+
+    @Test
+    void appendRead() throws IOException {
+        final File dir = Files.createTempDirectory();
+        final ByteBuffer first;
+        final ByteBuffer second;
+        try (ValueLog log = ValueLog.open(dir, 512, 4 * VALUE_SIZE)) {
+            assertTrue(log.separates(value(1)));
+            assertFalse(log.separates(ByteBuffer.allocate(511)));
+
+            first = log.append(key(1), value(1));
+            second = log.append(key(2), value(2));
+            assertEquals(ValueLog.POINTER_SIZE, first.remaining());
+            assertEquals(value(1), log.read(first));
+            assertEquals(value(2), log.read(second));
+        }
+
+        // The pointers survive reopening
+        try (ValueLog log = ValueLog.open(dir, 512, 4 * VALUE_SIZE)) {
+            assertEquals(value(1), log.read(first));
+            assertEquals(value(2), log.read(second));
+        }
+    }
+
+    @Test
+    void collect() throws IOException {
+        final File dir = Files.createTempDirectory();
+        try (ValueLog log = ValueLog.open(dir, 512, 4 * VALUE_SIZE)) {
+            // The engine's view of the current pointers
+            final Map<ByteBuffer, ByteBuffer> pointers = new HashMap<>();
+            for (int i = 0; i < 8; i++) {
+                pointers.put(key(i), log.append(key(i), value(i)));
+            }
+            // Overwrite and remove a half of the first segment
+            pointers.put(key(0), log.append(key(0), value(100)));
+            pointers.remove(key(1));
+
+            final List<Long> sealed = log.sealed();
+            assertEquals(2, sealed.size());
+            final long segment = sealed.get(0);
+
+            final long reclaimed = log.collect(
+                    segment,
+                    (key, pointer) -> pointer.equals(pointers.get(key)),
+                    (key, from, to) -> pointers.replace(key, from, to));
+            assertTrue(reclaimed >= 2 * VALUE_SIZE);
+            assertFalse(log.sealed().contains(segment));
+
+            assertEquals(7, pointers.size());
+            assertEquals(value(100), log.read(pointers.get(key(0))));
+            for (int i = 2; i < 8; i++) {
+                assertEquals(value(i), log.read(pointers.get(key(i))));
+            }
+
+            assertThrows(IllegalArgumentException.class, () -> log.collect(segment, (k, p) -> true, (k, f, t) -> { }));
+        }
+    }
+
+    @Test
+    void pinDefersDeletion() throws IOException {
+        final File dir = Files.createTempDirectory();
+        try (ValueLog log = ValueLog.open(dir, 512, 2 * VALUE_SIZE)) {
+            final Map<ByteBuffer, ByteBuffer> pointers = new HashMap<>();
+            for (int i = 0; i < 4; i++) {
+                pointers.put(key(i), log.append(key(i), value(i)));
+            }
+            final long segment = log.sealed().get(0);
+
+            final ValueLog.Pin pin = log.pin();
+            // Obtained before the relocation, e.g. by a snapshot iterator
+            final ByteBuffer stale = pointers.get(key(0));
+            log.collect(
+                    segment,
+                    (key, pointer) -> pointer.equals(pointers.get(key)),
+                    (key, from, to) -> pointers.replace(key, from, to));
+            assertEquals(value(0), log.read(stale));
+            assertEquals(value(0), log.read(pointers.get(key(0))));
+
+            // A later pin doesn't hold the segment
+            final ValueLog.Pin later = log.pin();
+            pin.close();
+            assertThrows(IOException.class, () -> log.read(stale));
+            assertEquals(value(0), log.read(pointers.get(key(0))));
+            later.close();
+        }
+    }
+
+    @Test
+    void reopenContinuesLastSegment() throws IOException {
+        final File dir = Files.createTempDirectory();
+        final ByteBuffer first;
+        try (ValueLog log = ValueLog.open(dir, 512, 4 * VALUE_SIZE)) {
+            first = log.append(key(1), value(1));
+        }
+        // A torn append
+        final File segment = new File(dir, "vlog-0.log");
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(raf.length());
+            raf.writeInt(Integer.BYTES);
+            raf.writeInt(VALUE_SIZE);
+            raf.writeInt(2);
+        }
+
+        final ByteBuffer second;
+        try (ValueLog log = ValueLog.open(dir, 512, 4 * VALUE_SIZE)) {
+            second = log.append(key(2), value(2));
+            assertEquals(value(1), log.read(first));
+            assertEquals(value(2), log.read(second));
+        }
+        assertEquals(1, dir.listFiles().length);
+        assertEquals(2L * (2 * Integer.BYTES + Integer.BYTES + VALUE_SIZE), segment.length());
+    }
+
+    private static ByteBuffer key(final int key) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, key);
+    }
+
+    private static ByteBuffer value(final int seed) {
+        final ByteBuffer result = ByteBuffer.allocate(VALUE_SIZE);
+        for (int i = 0; i < VALUE_SIZE; i++) {
+            result.put(i, (byte) (seed + i));
+        }
+        return result;
+    }
+}
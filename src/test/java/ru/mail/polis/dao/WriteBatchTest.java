@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link WriteBatch} and the default {@link DAO#write(WriteBatch)}.
+ *
+ * @author IgorLo
+ */
+class WriteBatchTest {
+    @Test
+    void copies() {
+        final ByteBuffer key = buffer(1);
+        final ByteBuffer value = buffer(10);
+        final WriteBatch batch = new WriteBatch()
+                .upsert(key, value)
+                .remove(buffer(2));
+        key.putInt(0, 3);
+        value.putInt(0, 30);
+
+        assertEquals(2, batch.size());
+        assertEquals(3L * Integer.BYTES, batch.bytes());
+        assertEquals(buffer(1), batch.key(0));
+        assertEquals(buffer(10), batch.value(0));
+        assertEquals(buffer(2), batch.key(1));
+        assertNull(batch.value(1));
+        assertTrue(batch.key(0).isReadOnly());
+
+        batch.clear();
+        assertTrue(batch.isEmpty());
+        assertEquals(0L, batch.bytes());
+    }
+
+    @Test
+    void appliesInOrder() throws IOException {
+        try (DAO dao = new TreeMapDAO()) {
+            dao.upsert(buffer(3), buffer(30));
+            dao.write(new WriteBatch()
+                    .upsert(buffer(1), buffer(10))
+                    .upsert(buffer(2), buffer(20))
+                    .remove(buffer(2))
+                    .remove(buffer(3))
+                    .upsert(buffer(1), buffer(11)));
+
+            assertEquals(buffer(11), dao.get(buffer(1)));
+            assertThrows(NoSuchElementException.class, () -> dao.get(buffer(2)));
+            assertThrows(NoSuchElementException.class, () -> dao.get(buffer(3)));
+        }
+    }
+
+    private static ByteBuffer buffer(final int value) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, value);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.MerkleTree;
+import ru.mail.polis.dao.TreeMapDAO;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for {@link AntiEntropy}.
+ *
+ * @author IgorLo
+ */
+class AntiEntropyTest {
+    @Test
+    void failingReplicas() throws IOException {
+        final DAO dao = new TreeMapDAO();
+        dao.upsert(ByteBuffer.wrap(new byte[]{1}), ByteBuffer.wrap(new byte[]{2}));
+        final MerkleTree.Snapshot empty = new MerkleTree(new TreeMapDAO()).snapshot();
+
+        final List<List<MerkleTree.Range>> repaired = new ArrayList<>();
+        final Map<AntiEntropy.Replica, MerkleTree> trees = new LinkedHashMap<>();
+        trees.put(replica(() -> {
+            throw new IOException("Unavailable");
+        }, repaired), new MerkleTree(dao));
+        trees.put(replica(() -> {
+            throw new IllegalArgumentException("Malformed");
+        }, repaired), new MerkleTree(dao));
+        trees.put(replica(() -> empty, repaired), new MerkleTree(dao));
+        try (AntiEntropy antiEntropy = new AntiEntropy(trees)) {
+            assertEquals(1, antiEntropy.run());
+            assertEquals(1, repaired.size());
+        }
+    }
+
+    @Test
+    void sharedKeysOnly() throws IOException {
+        final Topology topology = new Topology(List.of("a", "b", "c"));
+        final Predicate<ByteBuffer> ab = AntiEntropy.shared(topology, "a", "b", 2);
+        final Predicate<ByteBuffer> ba = AntiEntropy.shared(topology, "b", "a", 2);
+        final DAO a = new TreeMapDAO();
+        final DAO b = new TreeMapDAO();
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer key = ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.US_ASCII));
+            final List<String> replicas = topology.replicasFor(key, 2);
+            final ByteBuffer value = ByteBuffer.wrap(new byte[]{(byte) i});
+            if (replicas.contains("a")) {
+                a.upsert(key, value);
+            }
+            if (replicas.contains("b")) {
+                b.upsert(key, value);
+            }
+            assertEquals(ab.test(key), ba.test(key));
+        }
+
+        final MerkleTree.Snapshot remote = new MerkleTree(b, MerkleTree.DEFAULT_DEPTH, ba).snapshot();
+        final List<List<MerkleTree.Range>> repaired = new ArrayList<>();
+        final MerkleTree local = new MerkleTree(a, MerkleTree.DEFAULT_DEPTH, ab);
+        try (AntiEntropy antiEntropy = new AntiEntropy(Map.of(replica(() -> remote, repaired), local))) {
+            // Different ownership, but the same shared records
+            assertEquals(0, antiEntropy.run());
+        }
+    }
+
+    private static AntiEntropy.Replica replica(
+            @NotNull final Remote remote,
+            @NotNull final List<List<MerkleTree.Range>> repaired) {
+        return new AntiEntropy.Replica() {
+            @NotNull
+            @Override
+            public MerkleTree.Snapshot merkleTree() throws IOException {
+                return remote.get();
+            }
+
+            @Override
+            public void repair(@NotNull final List<MerkleTree.Range> ranges) {
+                repaired.add(ranges);
+            }
+        };
+    }
+
+    @FunctionalInterface
+    private interface Remote {
+        MerkleTree.Snapshot get() throws IOException;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+
+import org.junit.jupiter.api.Test;
+
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.TreeMapDAO;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link EntityTags}.
+ *
+ * @author IgorLo
+ */
+class EntityTagsTest {
+    private static final ByteBuffer KEY = buffer("key");
+
+    @Test
+    void tags() {
+        final String tag = EntityTags.of(buffer("value"));
+        assertEquals(tag, EntityTags.of(buffer("value")));
+        assertNotEquals(tag, EntityTags.of(buffer("other")));
+        assertTrue(tag.startsWith("\"") && tag.endsWith("\""), tag);
+    }
+
+    @Test
+    void matches() {
+        final ByteBuffer value = buffer("value");
+        final String tag = EntityTags.of(value);
+
+        assertTrue(EntityTags.matches(value, tag, null));
+        assertTrue(EntityTags.matches(value, "\"stale\", " + tag, null));
+        // If-Match uses the strong comparison
+        assertFalse(EntityTags.matches(value, "W/" + tag, null));
+        assertTrue(EntityTags.matches(value, "*", null));
+        assertFalse(EntityTags.matches(value, "\"stale\"", null));
+        assertFalse(EntityTags.matches(null, "*", null));
+
+        assertTrue(EntityTags.matches(null, null, "*"));
+        assertTrue(EntityTags.matches(value, null, "\"stale\""));
+        assertFalse(EntityTags.matches(value, null, "*"));
+        assertFalse(EntityTags.matches(value, null, tag));
+        // If-None-Match uses the weak comparison
+        assertFalse(EntityTags.matches(value, null, "W/" + tag));
+    }
+
+    @Test
+    void write() throws IOException {
+        try (DAO dao = new TreeMapDAO()) {
+            // Create only if absent
+            assertTrue(EntityTags.write(dao, KEY, null, "*", buffer("first")));
+            assertFalse(EntityTags.write(dao, KEY, null, "*", buffer("second")));
+            assertEquals(buffer("first"), dao.get(KEY));
+
+            // Replace only the value read
+            final String read = EntityTags.of(dao.get(KEY));
+            assertTrue(EntityTags.write(dao, KEY, read, null, buffer("second")));
+            assertFalse(EntityTags.write(dao, KEY, read, null, buffer("third")));
+            assertEquals(buffer("second"), dao.get(KEY));
+
+            // Remove only the value read
+            assertFalse(EntityTags.write(dao, KEY, read, null, null));
+            assertTrue(EntityTags.write(dao, KEY, EntityTags.of(buffer("second")), null, null));
+            assertThrows(NoSuchElementException.class, () -> dao.get(KEY));
+            assertFalse(EntityTags.write(dao, KEY, "*", null, null));
+        }
+    }
+
+    private static ByteBuffer buffer(final String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
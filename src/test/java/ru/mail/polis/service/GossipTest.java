@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link Gossip} state exchange.
+ *
+ * @author IgorLo
+ */
+class GossipTest {
+    private static final String A = "http://localhost:8080";
+    private static final String B = "http://localhost:8081";
+    private static final List<String> NODES = List.of(A, B);
+
+    @Test
+    void exchange() {
+        final AtomicLong clock = new AtomicLong();
+        final PhiAccrualFailureDetector detector =
+                new PhiAccrualFailureDetector(8.0, 100, 1000L, 100L, 0L, clock::get);
+        try (Gossip a = new Gossip(A, NODES, detector, 100);
+             Gossip b = new Gossip(B, NODES, detector, 100)) {
+            assertEquals(2, Gossip.decode(a.receive(b.encode())).size());
+            assertTrue(a.isAlive(B));
+
+            // B stays silent
+            clock.addAndGet(60_000L);
+            assertFalse(a.isAlive(B));
+            assertEquals(List.of(A), a.alive(NODES));
+
+            // Stale gossip is not a heartbeat
+            a.receive(b.encode());
+            assertFalse(a.isAlive(B));
+        }
+    }
+
+    @Test
+    void restart() {
+        final AtomicLong clock = new AtomicLong();
+        final PhiAccrualFailureDetector detector =
+                new PhiAccrualFailureDetector(8.0, 100, 1000L, 100L, 0L, clock::get);
+        try (Gossip a = new Gossip(A, NODES, detector, 100, 1L);
+             Gossip b = new Gossip(B, NODES, detector, 100, 1L)) {
+            for (int i = 0; i < 10; i++) {
+                b.beat();
+            }
+            a.receive(b.encode());
+            clock.addAndGet(60_000L);
+            assertFalse(a.isAlive(B));
+
+            // B restarts counting from zero in a new generation
+            try (Gossip restarted = new Gossip(B, NODES, detector, 100, 2L)) {
+                a.receive(restarted.encode());
+                assertTrue(a.isAlive(B));
+
+                // Gossip about the previous run is stale, the long pause above is in the history now
+                clock.addAndGet(600_000L);
+                b.beat();
+                a.receive(b.encode());
+                assertFalse(a.isAlive(B));
+            }
+        }
+    }
+
+    @Test
+    void silentFromStart() {
+        final AtomicLong clock = new AtomicLong();
+        final PhiAccrualFailureDetector detector =
+                new PhiAccrualFailureDetector(8.0, 100, 1000L, 100L, 0L, clock::get);
+        try (Gossip a = new Gossip(A, NODES, detector, 100)) {
+            assertTrue(a.isAlive(B));
+
+            // B never sends a heartbeat
+            clock.addAndGet(60_000L);
+            assertFalse(a.isAlive(B));
+            assertEquals(List.of(A), a.alive(NODES));
+        }
+    }
+
+    @Test
+    void malformed() {
+        final PhiAccrualFailureDetector detector =
+                new PhiAccrualFailureDetector(8.0, 100, 1000L, 100L, 0L, System::currentTimeMillis);
+        try (Gossip gossip = new Gossip(A, NODES, detector, 100)) {
+            assertThrows(IllegalArgumentException.class, () -> gossip.receive(new byte[]{0, 0, 0, 1, -1}));
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link HedgedReads}.
+ *
+ * @author IgorLo
+ */
+class HedgedReadsTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void fastPrimary() throws Exception {
+        final HedgedReads hedging = new HedgedReads(scheduler, 1.0, 1_000_000L);
+        final List<String> result = hedging.read(
+                List.of(answer("a", "first"), answer("b", "second")),
+                1).get(1, TimeUnit.SECONDS);
+        assertEquals(List.of("first"), result);
+        assertEquals(0L, hedging.hedges());
+    }
+
+    @Test
+    void slowPrimary() throws Exception {
+        final HedgedReads hedging = new HedgedReads(scheduler, 1.0, 1_000L);
+        final CompletableFuture<String> stuck = new CompletableFuture<>();
+        final List<String> result = hedging.read(
+                List.of(new HedgedReads.Replica<>("a", () -> stuck), answer("b", "second")),
+                1).get(1, TimeUnit.SECONDS);
+        assertEquals(List.of("second"), result);
+        assertEquals(1L, hedging.hedges());
+        assertEquals(1L, hedging.hedgeWins());
+        assertTrue(stuck.isCancelled());
+    }
+
+    @Test
+    void budget() throws Exception {
+        final HedgedReads hedging = new HedgedReads(scheduler, 0.0, 1_000L);
+        final CompletableFuture<List<String>> result = hedging.read(
+                List.of(new HedgedReads.Replica<>("a", CompletableFuture::new), answer("b", "second")),
+                1);
+        Thread.sleep(100);
+        assertFalse(result.isDone());
+        assertEquals(0L, hedging.hedges());
+        assertEquals(1L, hedging.budgetExhausted());
+    }
+
+    @Test
+    void failover() throws Exception {
+        final HedgedReads hedging = new HedgedReads(scheduler, 0.0, 1_000_000L);
+        final List<String> result = hedging.read(
+                List.of(
+                        new HedgedReads.Replica<>("a", () -> CompletableFuture.failedFuture(new Exception())),
+                        answer("b", "second")),
+                1).get(1, TimeUnit.SECONDS);
+        assertEquals(List.of("second"), result);
+        assertEquals(0L, hedging.hedges());
+    }
+
+    @Test
+    void throwingReplicas() throws Exception {
+        final HedgedReads hedging = new HedgedReads(scheduler, 1.0, 1_000L);
+        final CompletableFuture<String> stuck = new CompletableFuture<>();
+
+        // Failover from the primary
+        assertEquals(
+                List.of("second"),
+                hedging.read(List.of(throwing("a"), answer("b", "second")), 1).get(1, TimeUnit.SECONDS));
+
+        // Failover from the hedge
+        assertEquals(
+                List.of("third"),
+                hedging.read(
+                        List.of(new HedgedReads.Replica<>("a", () -> stuck), throwing("b"), answer("c", "third")),
+                        1).get(1, TimeUnit.SECONDS));
+
+        final ExecutionException e = assertThrows(
+                ExecutionException.class,
+                () -> hedging.read(List.of(throwing("a"), throwing("b")), 1).get(1, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+
+    @Test
+    void lateHedgeCancelled() throws Exception {
+        final HedgedReads hedging = new HedgedReads(scheduler, 1.0, 1_000L);
+        final CompletableFuture<String> primary = new CompletableFuture<>();
+        final CompletableFuture<String> hedge = new CompletableFuture<>();
+        final List<String> result = hedging.read(
+                List.of(
+                        new HedgedReads.Replica<>("a", () -> primary),
+                        // The primary answers while the hedge is being sent
+                        new HedgedReads.Replica<>("b", () -> {
+                            primary.complete("first");
+                            return hedge;
+                        })),
+                1).get(1, TimeUnit.SECONDS);
+        assertEquals(List.of("first"), result);
+        // Cancelled by the sending thread once the request is returned
+        assertThrows(CancellationException.class, () -> hedge.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void windowedLatency() throws Exception {
+        final AtomicLong clock = new AtomicLong();
+        final HedgedReads hedging = new HedgedReads(scheduler, 0.0, 0L, clock::get);
+        final long slow = TimeUnit.MILLISECONDS.toNanos(100);
+
+        // Failures count as well
+        final CompletableFuture<List<String>> failed = hedging.read(
+                List.of(new HedgedReads.Replica<>("a", () -> delayed(clock, slow, null))),
+                1);
+        assertTrue(failed.isCompletedExceptionally());
+        assertTrue(hedging.threshold("a") >= 100_000L);
+
+        // The next window reports the previous complete one
+        clock.addAndGet(HedgedReads.WINDOW);
+        hedging.read(List.of(new HedgedReads.Replica<>("a", () -> delayed(clock, 1_000L, "fast"))), 1);
+        assertTrue(hedging.threshold("a") >= 100_000L);
+
+        // And then forgets it
+        clock.addAndGet(HedgedReads.WINDOW);
+        assertTrue(hedging.threshold("a") < 100_000L);
+    }
+
+    private static CompletableFuture<String> delayed(
+            final AtomicLong clock,
+            final long nanos,
+            final String value) {
+        clock.addAndGet(nanos);
+        return value == null
+                ? CompletableFuture.failedFuture(new Exception())
+                : CompletableFuture.completedFuture(value);
+    }
+
+    private static HedgedReads.Replica<String> throwing(final String peer) {
+        return new HedgedReads.Replica<>(peer, () -> {
+            throw new IllegalStateException("Not connected");
+        });
+    }
+
+    private static HedgedReads.Replica<String> answer(
+            final String peer,
+            final String value) {
+        return new HedgedReads.Replica<>(peer, () -> CompletableFuture.completedFuture(value));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link LatencyHistogram}.
+ *
+ * @author IgorLo
+ */
+class LatencyHistogramTest {
+    @Test
+    void empty() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0L, histogram.count());
+        assertEquals(0L, histogram.percentile(0.99));
+    }
+
+    @Test
+    void buckets() {
+        for (long value = 0; value < 100_000; value++) {
+            final int index = LatencyHistogram.index(value);
+            assertTrue(LatencyHistogram.lowestEquivalent(index) <= value);
+            assertTrue(LatencyHistogram.highestEquivalent(index) >= value);
+        }
+        final int last = LatencyHistogram.index(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestEquivalent(last));
+    }
+
+    @Test
+    void percentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(10_000L, histogram.count());
+        assertWithinError(5_000L, histogram.percentile(0.5));
+        assertWithinError(9_500L, histogram.percentile(0.95));
+        assertWithinError(10_000L, histogram.percentile(1.0));
+    }
+
+    @Test
+    void random() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 10_000; i++) {
+            final long value = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+            histogram.record(value);
+            assertTrue(histogram.percentile(1.0) >= value);
+        }
+    }
+
+    private static void assertWithinError(
+            final long expected,
+            final long actual) {
+        assertTrue(Math.abs(expected - actual) <= expected / 16, "Expected ~" + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link PhiAccrualFailureDetector}.
+ *
+ * @author IgorLo
+ */
+class PhiAccrualFailureDetectorTest {
+    private static final long INTERVAL = 1000L;
+
+    private final AtomicLong clock = new AtomicLong();
+    private final PhiAccrualFailureDetector detector =
+            new PhiAccrualFailureDetector(8.0, 100, INTERVAL, 100L, 0L, clock::get);
+
+    @Test
+    void unknown() {
+        assertEquals(0.0, detector.phi("unknown"), 0.0);
+        assertTrue(detector.isAvailable("unknown"));
+    }
+
+    @Test
+    void neverHeartbeats() {
+        detector.expect("silent");
+        assertTrue(detector.isAvailable("silent"));
+        clock.addAndGet(10 * INTERVAL);
+        assertFalse(detector.isAvailable("silent"));
+
+        // The silence before the first heartbeat is not an interval
+        detector.heartbeat("silent");
+        clock.addAndGet(INTERVAL);
+        assertTrue(detector.phi("silent") < 1.0);
+    }
+
+    @Test
+    void regularHeartbeats() {
+        beat(10);
+        clock.addAndGet(INTERVAL);
+        assertTrue(detector.isAvailable("node"));
+        assertTrue(detector.phi("node") < 1.0);
+    }
+
+    @Test
+    void suspectAndRecover() {
+        beat(10);
+        clock.addAndGet(INTERVAL / 2);
+        final double early = detector.phi("node");
+        clock.addAndGet(10 * INTERVAL);
+        assertTrue(detector.phi("node") > early);
+        assertFalse(detector.isAvailable("node"));
+
+        detector.heartbeat("node");
+        assertTrue(detector.isAvailable("node"));
+    }
+
+    private void beat(final int count) {
+        for (int i = 0; i < count; i++) {
+            detector.heartbeat("node");
+            clock.addAndGet(INTERVAL);
+        }
+        detector.heartbeat("node");
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.TreeMapDAO;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link Rebalancer}.
+ *
+ * @author IgorLo
+ */
+class RebalancerTest extends TestBase {
+    @Test
+    void join() throws IOException {
+        final Topology topology = new Topology(List.of("a", "b"));
+        final DAO dao = new TreeMapDAO();
+        int owned = 0;
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            dao.upsert(key, randomValueBuffer());
+            if (topology.primaryFor(key).equals("a")) {
+                owned++;
+            }
+        }
+
+        final Rebalancer rebalancer = new Rebalancer("a", dao, topology, 1, Long.MAX_VALUE, 4096);
+        rebalancer.beginJoin("c");
+
+        final List<Record> streamed = new ArrayList<>();
+        assertEquals(rebalancer.stream(streamed::addAll), streamed.size());
+        assertTrue(!streamed.isEmpty() && streamed.size() < owned);
+        for (final Record record : streamed) {
+            assertEquals("a", topology.primaryFor(record.getKey()));
+            assertEquals("c", topology.withNode("c").primaryFor(record.getKey()));
+            assertTrue(rebalancer.writeReplicas(record.getKey()).containsAll(List.of("a", "c")));
+            assertEquals(List.of("a"), rebalancer.readReplicas(record.getKey()));
+        }
+
+        rebalancer.completeJoin();
+        assertEquals(3, rebalancer.topology().size());
+        for (final Record record : streamed) {
+            assertEquals(List.of("c"), rebalancer.readReplicas(record.getKey()));
+        }
+    }
+
+    @Test
+    void dualWriteRace() throws IOException {
+        final Topology topology = new Topology(List.of("a", "b"));
+        final DAO source = new TreeMapDAO();
+        final List<ByteBuffer> moving = new ArrayList<>();
+        while (moving.size() < 3) {
+            final ByteBuffer key = randomKeyBuffer();
+            source.upsert(key, randomValueBuffer());
+            if (topology.primaryFor(key).equals("a") && topology.withNode("c").primaryFor(key).equals("c")) {
+                moving.add(key);
+            }
+        }
+
+        final Rebalancer rebalancer = new Rebalancer("a", source, topology, 1, Long.MAX_VALUE, 4096);
+        rebalancer.beginJoin("c");
+        final DAO joining = new TreeMapDAO();
+        final Rebalancer.Receiver receiver = new Rebalancer.Receiver(joining);
+
+        // Dual writes reach the joining node before the stale streamed records
+        final ByteBuffer updated = moving.get(0);
+        final ByteBuffer fresh = randomValueBuffer();
+        joining.upsert(updated, fresh);
+        final ByteBuffer removed = moving.get(1);
+        receiver.remove(removed);
+
+        rebalancer.stream(receiver);
+        assertEquals(fresh, joining.get(updated));
+        assertThrows(NoSuchElementException.class, () -> joining.get(removed));
+        assertEquals(source.get(moving.get(2)), joining.get(moving.get(2)));
+
+        assertThrows(IllegalStateException.class, () -> new Rebalancer.Receiver(joining));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.TreeMapDAO;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link ReplicationBatcher}.
+ *
+ * @author IgorLo
+ */
+class ReplicationBatcherTest extends TestBase {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<byte[]> sent = new CopyOnWriteArrayList<>();
+    private final ReplicationBatcher.Transport transport = (peer, batch) -> {
+        sent.add(batch);
+        return CompletableFuture.completedFuture(null);
+    };
+
+    @AfterEach
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void coalesceByWindow() throws Exception {
+        final ReplicationBatcher batcher =
+                new ReplicationBatcher(transport, scheduler, TimeUnit.MILLISECONDS.toMicros(50), Integer.MAX_VALUE);
+        final List<CompletableFuture<Void>> acks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            acks.add(batcher.upsert("peer", randomKeyBuffer(), randomValueBuffer()));
+        }
+        CompletableFuture.allOf(acks.toArray(new CompletableFuture<?>[0])).get(1, TimeUnit.SECONDS);
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    void coalesceBySize() throws Exception {
+        final ReplicationBatcher batcher =
+                new ReplicationBatcher(transport, scheduler, TimeUnit.SECONDS.toMicros(10), 10 * 1024);
+        for (int i = 0; i < 100; i++) {
+            batcher.upsert("peer", randomKeyBuffer(), randomValueBuffer());
+        }
+        assertTrue(sent.size() >= 9 && sent.size() <= 10, "Sent " + sent.size());
+    }
+
+    @Test
+    void oneBatchInFlight() throws Exception {
+        final List<CompletableFuture<Void>> responses = new CopyOnWriteArrayList<>();
+        final ReplicationBatcher batcher = new ReplicationBatcher(
+                (peer, batch) -> {
+                    sent.add(batch);
+                    final CompletableFuture<Void> response = new CompletableFuture<>();
+                    responses.add(response);
+                    return response;
+                },
+                scheduler,
+                TimeUnit.SECONDS.toMicros(10),
+                Integer.MAX_VALUE);
+        final CompletableFuture<Void> first = batcher.upsert("peer", randomKeyBuffer(), randomValueBuffer());
+        batcher.flush();
+        final CompletableFuture<Void> second = batcher.upsert("peer", randomKeyBuffer(), randomValueBuffer());
+        batcher.flush();
+
+        // The second batch waits for the first one
+        assertEquals(1, sent.size());
+        responses.get(0).completeExceptionally(new IllegalStateException("Timeout"));
+        assertTrue(first.isCompletedExceptionally());
+        assertEquals(2, sent.size());
+        assertFalse(second.isDone());
+        responses.get(1).complete(null);
+        second.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void apply() throws Exception {
+        final ReplicationBatcher batcher =
+                new ReplicationBatcher(transport, scheduler, TimeUnit.SECONDS.toMicros(10), Integer.MAX_VALUE);
+        final ByteBuffer kept = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        final ByteBuffer removed = randomKeyBuffer();
+        batcher.upsert("peer", kept, value);
+        batcher.upsert("peer", removed, value);
+        batcher.remove("peer", removed);
+        batcher.flush();
+        assertEquals(1, sent.size());
+
+        final DAO dao = new TreeMapDAO();
+        assertEquals(3, ReplicationBatcher.apply(sent.get(0), dao));
+        assertEquals(value, dao.get(kept));
+        assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+
+        final byte[] truncated = new byte[sent.get(0).length - 1];
+        System.arraycopy(sent.get(0), 0, truncated, 0, truncated.length);
+        final DAO partial = new TreeMapDAO();
+        assertThrows(IllegalArgumentException.class, () -> ReplicationBatcher.apply(truncated, partial));
+        // A malformed batch is rejected as a whole
+        assertFalse(partial.iterator(ByteBuffer.allocate(0)).hasNext());
+    }
+}
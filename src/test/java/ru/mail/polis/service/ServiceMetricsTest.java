@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import one.nio.http.Request;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.dao.StorageMetrics;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link ServiceMetrics} rendering.
+ *
+ * @author IgorLo
+ */
+class ServiceMetricsTest {
+    @Test
+    void render() {
+        final ServiceMetrics metrics = new ServiceMetrics();
+        for (int i = 0; i < 100; i++) {
+            metrics.record(Request.METHOD_GET, 200, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        metrics.record(Request.METHOD_PUT, 400, TimeUnit.MILLISECONDS.toNanos(1));
+        metrics.record(Request.METHOD_DELETE, 503, TimeUnit.MILLISECONDS.toNanos(1));
+
+        final StorageMetrics storage = new StorageMetrics();
+        storage.tables(3);
+        storage.flushed(TimeUnit.SECONDS.toNanos(2), 1024);
+
+        final String text = metrics.render(storage);
+        assertTrue(text.contains("# TYPE http_request_duration_seconds summary\n"));
+        assertTrue(text.contains("http_request_duration_seconds_count{method=\"GET\"} 100\n"));
+        assertTrue(text.contains("http_request_errors_total{method=\"PUT\",class=\"4xx\"} 1\n"));
+        assertTrue(text.contains("http_request_errors_total{method=\"DELETE\",class=\"5xx\"} 1\n"));
+        assertFalse(text.contains("method=\"POST\""));
+        assertTrue(text.contains("storage_tables 3\n"));
+        assertTrue(text.contains("storage_flush_seconds_total 2\n"));
+        assertTrue(text.contains("storage_written_bytes_total 1024\n"));
+    }
+}
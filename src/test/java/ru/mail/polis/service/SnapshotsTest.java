@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import ru.mail.polis.Files;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.TreeMapDAO;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link Snapshots}.
+ *
+ * @author IgorLo
+ */
+class SnapshotsTest {
+    @Test
+    void take() throws IOException {
+        final File data = Files.createTempDirectory();
+        java.nio.file.Files.write(new File(data, "table").toPath(), new byte[]{1, 2, 3});
+        final DAO dao = new TreeMapDAO() {
+            @Override
+            public void snapshot(@NotNull final File destination) throws IOException {
+                Files.hardLink(data, destination);
+            }
+        };
+
+        final File root = new File(Files.createTempDirectory(), "snapshots");
+        final Snapshots snapshots = new Snapshots(root, dao);
+        final File snapshot = snapshots.take("daily-1");
+        assertEquals(new File(root, "daily-1"), snapshot);
+        assertTrue(new File(snapshot, "table").isFile());
+
+        assertThrows(FileAlreadyExistsException.class, () -> snapshots.take("daily-1"));
+    }
+
+    @Test
+    void failureLeavesNothing() throws IOException {
+        final File data = Files.createTempDirectory();
+        java.nio.file.Files.write(new File(data, "table").toPath(), new byte[]{1, 2, 3});
+        final AtomicBoolean fail = new AtomicBoolean(true);
+        final DAO dao = new TreeMapDAO() {
+            @Override
+            public void snapshot(@NotNull final File destination) throws IOException {
+                Files.hardLink(data, destination);
+                if (fail.get()) {
+                    throw new IOException("Disk full");
+                }
+            }
+        };
+
+        final File root = Files.createTempDirectory();
+        final Snapshots snapshots = new Snapshots(root, dao);
+        assertThrows(IOException.class, () -> snapshots.take("daily-1"));
+        assertArrayEquals(new String[0], root.list());
+
+        fail.set(false);
+        final File snapshot = snapshots.take("daily-1");
+        assertTrue(new File(snapshot, "table").isFile());
+        assertArrayEquals(new String[]{"daily-1"}, root.list());
+    }
+
+    @Test
+    void badName() {
+        final Snapshots snapshots = new Snapshots(new File("snapshots"), new TreeMapDAO());
+        assertThrows(IllegalArgumentException.class, () -> snapshots.take(""));
+        assertThrows(IllegalArgumentException.class, () -> snapshots.take(".."));
+        assertThrows(IllegalArgumentException.class, () -> snapshots.take("../data"));
+        assertThrows(IllegalArgumentException.class, () -> snapshots.take("a/b"));
+    }
+
+    @Test
+    void unsupported() throws IOException {
+        final Snapshots snapshots = new Snapshots(Files.createTempDirectory(), new TreeMapDAO());
+        assertThrows(UnsupportedOperationException.class, () -> snapshots.take("first"));
+    }
+}
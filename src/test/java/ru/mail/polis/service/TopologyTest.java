@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link Topology}.
+ *
+ * @author IgorLo
+ */
+class TopologyTest extends TestBase {
+    private static final int KEYS = 10_000;
+
+    @Test
+    void distinctReplicas() {
+        final Topology topology = new Topology(List.of("a", "b", "c"));
+        for (int i = 0; i < KEYS; i++) {
+            final List<String> replicas = topology.replicasFor(randomKeyBuffer(), 3);
+            assertEquals(3, replicas.stream().distinct().count());
+        }
+        assertThrows(IllegalArgumentException.class, () -> topology.replicasFor(randomKeyBuffer(), 4));
+    }
+
+    @Test
+    void addNode() {
+        final Topology before = new Topology(List.of("a", "b", "c"));
+        final Topology after = before.withNode("d");
+        assertEquals(4, after.size());
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            final String owner = after.primaryFor(key);
+            if (!owner.equals(before.primaryFor(key))) {
+                // Keys move to the new node only
+                assertEquals("d", owner);
+                moved++;
+            }
+        }
+
+        // Roughly a quarter of the keys
+        assertTrue(moved > KEYS / 8 && moved < KEYS / 2, "Moved " + moved);
+    }
+}
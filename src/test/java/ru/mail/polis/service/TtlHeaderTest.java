@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019 (c) Odnoklassniki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.mail.polis.service;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit tests for {@link TtlHeader}.
+ *
+ * @author IgorLo
+ */
+class TtlHeaderTest {
+    @Test
+    void parse() {
+        assertNull(TtlHeader.parse(null));
+        assertEquals(Duration.ofSeconds(60), TtlHeader.parse("60"));
+        assertEquals(Duration.ofSeconds(60), TtlHeader.parse(" 60 "));
+        assertEquals("60", TtlHeader.format(Duration.ofMinutes(1)));
+    }
+
+    @Test
+    void malformed() {
+        assertThrows(IllegalArgumentException.class, () -> TtlHeader.parse(""));
+        assertThrows(IllegalArgumentException.class, () -> TtlHeader.parse("0"));
+        assertThrows(IllegalArgumentException.class, () -> TtlHeader.parse("-5"));
+        assertThrows(IllegalArgumentException.class, () -> TtlHeader.parse("1h"));
+    }
+}